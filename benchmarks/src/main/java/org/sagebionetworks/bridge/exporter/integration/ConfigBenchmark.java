@@ -0,0 +1,34 @@
+package org.sagebionetworks.bridge.exporter.integration;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.sagebionetworks.bridge.config.Config;
+
+/**
+ * Measures loading the test config. Every test class calls TestUtils.loadConfig() in its setup, which is cached after
+ * the first call. readConfig() measures the uncached cost of reading and parsing the config files.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConfigBenchmark {
+    @Benchmark
+    public Config loadConfig() throws Exception {
+        return TestUtils.loadConfig();
+    }
+
+    @Benchmark
+    public Config readConfig() throws Exception {
+        return TestUtils.readConfig();
+    }
+}
@@ -0,0 +1,79 @@
+package org.sagebionetworks.bridge.exporter.integration;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.amazonaws.services.dynamodbv2.document.DynamoDB;
+import com.amazonaws.services.dynamodbv2.document.Item;
+import com.amazonaws.services.dynamodbv2.document.Table;
+import org.joda.time.LocalDate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.sagebionetworks.repo.model.table.QueryResultBundle;
+
+import org.sagebionetworks.bridge.config.Config;
+import org.sagebionetworks.bridge.util.IntegTestUtils;
+
+/**
+ * Measures the FitBit row count fan-out in WorkerTest (list tables from DynamoDB, then one Synapse count query per
+ * table through the SynapseQueryEngine). DynamoDB is the in-memory backend and Synapse is the stand-in server with no
+ * added latency, and the engine polls right away, so this is the client-side overhead of the fan-out.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CountRowsBenchmark {
+    @Param({ "4", "16" })
+    public int tableCount;
+
+    private Table fitBitTables;
+    private LocalDate createdDate;
+    private SynapseQueryEngine queryEngine;
+    private SynapseStandInServer synapseStandInServer;
+
+    @Setup
+    public void setup() throws Exception {
+        Config config = TestUtils.loadConfig();
+        DynamoDB ddbClient = new DynamoDB(LocalBackends.getDdbClient());
+        fitBitTables = ddbClient.getTable(TestUtils.getDdbTableName(config, "FitBitTables"));
+
+        synapseStandInServer = new SynapseStandInServer();
+        for (int i = 0; i < tableCount; i++) {
+            String synapseTableId = "syn" + i;
+            fitBitTables.putItem(new Item().withString("studyId", IntegTestUtils.TEST_APP_ID)
+                    .withString("tableId", "BenchmarkTable" + i).withString("synapseTableId", synapseTableId));
+
+            QueryResultBundle queryResultBundle = new QueryResultBundle();
+            queryResultBundle.setQueryCount((long) i);
+            synapseStandInServer.putQueryResult(synapseTableId, queryResultBundle);
+        }
+
+        queryEngine = new SynapseQueryEngine(TestUtils.createSynapseClient(synapseStandInServer.getEndpoint(),
+                "benchmark-user", "benchmark-token")).withInitialPollDelayMillis(0);
+        createdDate = LocalDate.now();
+    }
+
+    @TearDown
+    public void tearDown() {
+        queryEngine.shutdown();
+        synapseStandInServer.stop();
+    }
+
+    @Benchmark
+    public Map<String, Integer> countRowsForTables() throws Exception {
+        return WorkerTest.countRowsForTables(fitBitTables, queryEngine, createdDate);
+    }
+}
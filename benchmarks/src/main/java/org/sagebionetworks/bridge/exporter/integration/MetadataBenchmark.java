@@ -0,0 +1,71 @@
+package org.sagebionetworks.bridge.exporter.integration;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.ImmutableMap;
+import org.joda.time.DateTime;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.sagebionetworks.repo.model.annotation.v2.AnnotationsValue;
+import org.sagebionetworks.repo.model.annotation.v2.AnnotationsValueType;
+
+/**
+ * Measures flattening Synapse annotations and verifying them against the expected metadata, as Exporter3Test does for
+ * every exported file.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MetadataBenchmark {
+    private static final String RECORD_ID = "benchmark-record";
+
+    // Custom metadata, like the metadata Exporter3Test uploads with.
+    private static final Map<String, String> EXPECTED_METADATA = ImmutableMap.of("instanceGuid", "benchmark-instance",
+            "eventTimestamp", "2021-01-01T00:00:00.000Z", "assessmentGuid", "benchmark-assessment");
+
+    private Map<String, AnnotationsValue> annotationMap;
+
+    @Setup
+    public void setup() {
+        String now = DateTime.now().toString();
+        annotationMap = new HashMap<>();
+        annotationMap.put("clientInfo", makeValue(AnnotationsValueType.STRING, "{\"appName\":\"Benchmark\"}"));
+        annotationMap.put("healthCode", makeValue(AnnotationsValueType.STRING, "benchmark-health-code"));
+        annotationMap.put("participantVersion", makeValue(AnnotationsValueType.LONG, "1"));
+        annotationMap.put("recordId", makeValue(AnnotationsValueType.STRING, RECORD_ID));
+        annotationMap.put("exportedOn", makeValue(AnnotationsValueType.STRING, now));
+        annotationMap.put("uploadedOn", makeValue(AnnotationsValueType.STRING, now));
+        for (Map.Entry<String, String> oneExpectedEntry : EXPECTED_METADATA.entrySet()) {
+            annotationMap.put(oneExpectedEntry.getKey(), makeValue(AnnotationsValueType.STRING,
+                    oneExpectedEntry.getValue()));
+        }
+    }
+
+    private static AnnotationsValue makeValue(AnnotationsValueType type, String value) {
+        AnnotationsValue annotationsValue = new AnnotationsValue();
+        annotationsValue.setType(type);
+        annotationsValue.setValue(Collections.singletonList(value));
+        return annotationsValue;
+    }
+
+    @Benchmark
+    public Map<String, String> flattenAndVerify() {
+        Map<String, String> flattenedAnnotationMap = Exporter3Test.flattenAnnotations(annotationMap);
+        Exporter3Test.verifyMetadata(flattenedAnnotationMap, RECORD_ID, EXPECTED_METADATA);
+        return flattenedAnnotationMap;
+    }
+}
@@ -0,0 +1,80 @@
+package org.sagebionetworks.bridge.exporter.integration;
+
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.joda.time.DateTime;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.sagebionetworks.bridge.json.DefaultObjectMapper;
+import org.sagebionetworks.bridge.util.IntegTestUtils;
+
+/**
+ * Measures building a worker request the way the tests used to do it (concatenate a JSON string, then parse it with
+ * readTree), compared to building the ObjectNode directly and to the WorkerRequest builder. The payload is the
+ * REPORTER request from WorkerTest.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WorkerRequestJsonBenchmark {
+    private String scheduler;
+    private DateTime startDateTime;
+    private DateTime endDateTime;
+
+    @Setup
+    public void setup() {
+        DateTime now = DateTime.now();
+        scheduler = TestResources.uniqueName("reporter-test");
+        startDateTime = now.minusHours(1);
+        endDateTime = now.plusHours(1);
+    }
+
+    @Benchmark
+    public JsonNode concatenateAndParse() throws Exception {
+        String requestText = "{\n" +
+                "   \"service\":\"REPORTER\",\n" +
+                "   \"body\":{\n" +
+                "       \"scheduler\":\"" + scheduler + "\",\n" +
+                "       \"scheduleType\":\"DAILY_SIGNUPS\",\n" +
+                "       \"appWhitelist\":[\"" + IntegTestUtils.TEST_APP_ID + "\"],\n" +
+                "       \"startDateTime\":\"" + startDateTime.toString() + "\",\n" +
+                "       \"endDateTime\":\"" + endDateTime.toString() + "\"\n" +
+                "   }\n" +
+                "}";
+        return DefaultObjectMapper.INSTANCE.readTree(requestText);
+    }
+
+    @Benchmark
+    public JsonNode buildObjectNode() {
+        ObjectNode requestNode = DefaultObjectMapper.INSTANCE.createObjectNode();
+        requestNode.put("service", "REPORTER");
+        ObjectNode bodyNode = requestNode.putObject("body");
+        bodyNode.put("scheduler", scheduler);
+        bodyNode.put("scheduleType", "DAILY_SIGNUPS");
+        bodyNode.putArray("appWhitelist").add(IntegTestUtils.TEST_APP_ID);
+        bodyNode.put("startDateTime", startDateTime.toString());
+        bodyNode.put("endDateTime", endDateTime.toString());
+        return requestNode;
+    }
+
+    @Benchmark
+    public JsonNode workerRequestBuilder() {
+        return WorkerRequest.reporter().withScheduler(scheduler).withScheduleType("DAILY_SIGNUPS")
+                .withAppWhitelist(IntegTestUtils.TEST_APP_ID).withStartDateTime(startDateTime)
+                .withEndDateTime(endDateTime).build().toJsonNode();
+    }
+}
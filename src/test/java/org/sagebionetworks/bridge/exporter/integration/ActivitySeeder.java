@@ -0,0 +1,169 @@
+package org.sagebionetworks.bridge.exporter.integration;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.collect.ImmutableList;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.LocalDate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.sagebionetworks.bridge.rest.api.ActivitiesApi;
+import org.sagebionetworks.bridge.rest.model.ScheduledActivity;
+import org.sagebionetworks.bridge.user.TestUser;
+
+/**
+ * Seeds scheduled activity histories for many users in parallel. Seeding is declared per cohort: a list of users, and
+ * the day indices (offsets from today) on which they completed their activity. For each user, the seeder makes one
+ * call to get activities for the whole window (which also initializes the user's schedule), marks the activities on
+ * the completed days as finished, and saves them in one update call. Users are seeded concurrently, on up to
+ * numThreads threads.
+ *
+ * Only activities with the given label count. There must be one such activity per day.
+ */
+public class ActivitySeeder {
+    private static final Logger LOG = LoggerFactory.getLogger(ActivitySeeder.class);
+
+    public static final int DEFAULT_NUM_THREADS = 8;
+    public static final int DEFAULT_WINDOW_DAYS = 31;
+
+    private final LocalDate today;
+    private final DateTimeZone timeZone;
+    private final String activityLabel;
+    private int numThreads = DEFAULT_NUM_THREADS;
+    private int windowDays = DEFAULT_WINDOW_DAYS;
+    private UserInitializer userInitializer;
+
+    /** Creates a seeder for activities with the given label. Day indices are relative to today, in the time zone. */
+    public ActivitySeeder(LocalDate today, DateTimeZone timeZone, String activityLabel) {
+        this.today = today;
+        this.timeZone = timeZone;
+        this.activityLabel = activityLabel;
+    }
+
+    /** Number of users seeded at once. Defaults to 8. */
+    public ActivitySeeder withNumThreads(int numThreads) {
+        this.numThreads = numThreads;
+        return this;
+    }
+
+    /** Number of days of activities to initialize, starting today. Defaults to 31. */
+    public ActivitySeeder withWindowDays(int windowDays) {
+        this.windowDays = windowDays;
+        return this;
+    }
+
+    /** Extra per-user setup (eg, writing a report), run after the user's activities are seeded. */
+    public ActivitySeeder withUserInitializer(UserInitializer userInitializer) {
+        this.userInitializer = userInitializer;
+        return this;
+    }
+
+    /** Declares a cohort of users who completed their activities on the given day indices (possibly none). */
+    public static Cohort cohort(List<TestUser> userList, int... completedDayIndices) {
+        return new Cohort(userList, completedDayIndices);
+    }
+
+    /** Seeds a single user, on the calling thread. */
+    public void seedUser(TestUser user, int... completedDayIndices) throws Exception {
+        seedOneUser(user, completedDayIndices);
+    }
+
+    /** Seeds all users in all cohorts, in parallel. Returns the number of activities marked as completed. */
+    public int seed(List<Cohort> cohortList) {
+        AtomicInteger numCompleted = new AtomicInteger();
+        int numUsers = 0;
+        long startMillis = System.currentTimeMillis();
+        ExecutorService executorService = Executors.newFixedThreadPool(numThreads);
+        try {
+            List<CompletableFuture<Void>> futureList = new ArrayList<>();
+            for (Cohort oneCohort : cohortList) {
+                for (TestUser oneUser : oneCohort.userList) {
+                    numUsers++;
+                    futureList.add(CompletableFuture.runAsync(() -> {
+                        try {
+                            numCompleted.addAndGet(seedOneUser(oneUser, oneCohort.completedDayIndices));
+                        } catch (Exception ex) {
+                            throw new CompletionException("Error seeding activities for user " +
+                                    oneUser.getUserId(), ex);
+                        }
+                    }, executorService));
+                }
+            }
+            CompletableFuture.allOf(futureList.toArray(new CompletableFuture[0])).join();
+        } finally {
+            executorService.shutdown();
+        }
+
+        long elapsedMillis = System.currentTimeMillis() - startMillis;
+        LOG.info(String.format("Seeded %d users in %d cohorts, %d completed activities, in %dms (%.1f users/s)",
+                numUsers, cohortList.size(), numCompleted.get(), elapsedMillis,
+                numUsers * 1000.0 / Math.max(elapsedMillis, 1)));
+        return numCompleted.get();
+    }
+
+    // Returns the number of activities marked as completed.
+    private int seedOneUser(TestUser user, int[] completedDayIndices) throws Exception {
+        // Getting activities initializes the user's schedule. Start at midnight today, so we catch today's activity.
+        ActivitiesApi activitiesApi = user.getClient(ActivitiesApi.class);
+        DateTime startOfToday = today.toDateTimeAtStartOfDay(timeZone);
+        List<ScheduledActivity> activityList = activitiesApi.getScheduledActivitiesByDateRange(startOfToday,
+                startOfToday.plusDays(windowDays)).execute().body().getItems();
+
+        if (completedDayIndices.length > 0) {
+            // Map activities by scheduled date, filtering out activities with the wrong label.
+            Map<LocalDate, ScheduledActivity> activitiesByDate = new HashMap<>();
+            for (ScheduledActivity oneActivity : activityList) {
+                if (activityLabel.equals(oneActivity.getActivity().getLabel())) {
+                    LocalDate scheduledDate = oneActivity.getScheduledOn().withZone(timeZone).toLocalDate();
+                    activitiesByDate.put(scheduledDate, oneActivity);
+                }
+            }
+
+            // Activities have to be marked as both started and finished to be classified as finished.
+            List<ScheduledActivity> activitiesToUpdate = new ArrayList<>();
+            for (int oneIndex : completedDayIndices) {
+                ScheduledActivity oneActivity = activitiesByDate.get(today.plusDays(oneIndex));
+                if (oneActivity == null) {
+                    throw new IllegalStateException("User " + user.getUserId() + " has no " + activityLabel +
+                            " activity on day " + oneIndex);
+                }
+                oneActivity.setStartedOn(oneActivity.getScheduledOn().plusHours(1));
+                oneActivity.setFinishedOn(oneActivity.getScheduledOn().plusHours(2));
+                activitiesToUpdate.add(oneActivity);
+            }
+            activitiesApi.updateScheduledActivities(activitiesToUpdate).execute();
+        }
+
+        if (userInitializer != null) {
+            userInitializer.init(user);
+        }
+        return completedDayIndices.length;
+    }
+
+    /** Extra setup for a seeded user. */
+    @FunctionalInterface
+    public interface UserInitializer {
+        void init(TestUser user) throws Exception;
+    }
+
+    /** A list of users, and the day indices on which they completed their activities. */
+    public static class Cohort {
+        private final List<TestUser> userList;
+        private final int[] completedDayIndices;
+
+        private Cohort(List<TestUser> userList, int[] completedDayIndices) {
+            this.userList = ImmutableList.copyOf(userList);
+            this.completedDayIndices = completedDayIndices.clone();
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package org.sagebionetworks.bridge.exporter.integration;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.sagebionetworks.bridge.rest.api.StudyAdherenceApi;
+import org.sagebionetworks.bridge.rest.model.AdherenceReportSearch;
+import org.sagebionetworks.bridge.rest.model.TestFilter;
+import org.sagebionetworks.bridge.rest.model.WeeklyAdherenceReport;
+import org.sagebionetworks.bridge.rest.model.WeeklyAdherenceReportList;
+
+/**
+ * Finds a participant's weekly adherence report in a study, without paging through the whole study one page at a
+ * time. A lookup tries, in order:
+ * 1. The index of reports we've already seen. Only found reports are indexed, since a missing report may show up
+ *    once the worker runs.
+ * 2. A server-side search, filtered by the participant's ID. The ID filter is a partial match, so the results are
+ *    checked for an exact match.
+ * 3. A full scan. The first page gives us the total, then the remaining pages are fetched concurrently on up to
+ *    numThreads threads. The scan stops as soon as any page has the report.
+ *
+ * Every report seen along the way is indexed, so later lookups for other participants are usually free. Call
+ * invalidate() or refresh() when a report might have been deleted.
+ *
+ * To wait for a report the worker hasn't written yet, use awaitReport(). It polls with only the index and the search,
+ * and only scans once, after they've missed for the whole wait.
+ *
+ * The scan threads are created on the first scan and reused by later scans. Call shutdown() when done with the lookup.
+ */
+public class AdherenceReportLookup {
+    private static final Logger LOG = LoggerFactory.getLogger(AdherenceReportLookup.class);
+
+    public static final int DEFAULT_NUM_THREADS = 8;
+    public static final int DEFAULT_PAGE_SIZE = 100;
+
+    private final StudyAdherenceApi adherenceApi;
+    private final String studyId;
+    private final Map<String, WeeklyAdherenceReport> reportsByUserId = new ConcurrentHashMap<>();
+    private int numThreads = DEFAULT_NUM_THREADS;
+    private int pageSize = DEFAULT_PAGE_SIZE;
+    private boolean useServerFilter = true;
+    private ExecutorService scanExecutor;
+
+    /** Creates a lookup for test participants' reports in the given study. */
+    public AdherenceReportLookup(StudyAdherenceApi adherenceApi, String studyId) {
+        this.adherenceApi = adherenceApi;
+        this.studyId = studyId;
+    }
+
+    /** Number of pages fetched at once during a full scan. Defaults to 8. */
+    public AdherenceReportLookup withNumThreads(int numThreads) {
+        this.numThreads = numThreads;
+        return this;
+    }
+
+    /** Number of reports per page. Defaults to 100. */
+    public AdherenceReportLookup withPageSize(int pageSize) {
+        this.pageSize = pageSize;
+        return this;
+    }
+
+    /** True to try a server-side search by participant ID before scanning. Defaults to true. */
+    public AdherenceReportLookup withServerFilter(boolean useServerFilter) {
+        this.useServerFilter = useServerFilter;
+        return this;
+    }
+
+    /** Returns the participant's report, or null if the study has no report for them. */
+    public WeeklyAdherenceReport findReport(String userId) throws IOException {
+        WeeklyAdherenceReport report = findReportWithoutScan(userId);
+        if (report == null) {
+            report = scanAndLog(userId);
+        }
+        return report;
+    }
+
+    /**
+     * Waits up to waitMillis for the participant's report, checking every pollIntervalMillis. Polls only check the
+     * index and the search. If they miss for the whole wait, a full scan runs once, in case the search missed a
+     * report that's there. Returns null if the study still has no report for them.
+     *
+     * With the server filter turned off, there's no cheap way to see new reports, so every poll is a full scan.
+     */
+    public WeeklyAdherenceReport awaitReport(String userId, long waitMillis, long pollIntervalMillis)
+            throws IOException, InterruptedException {
+        long deadlineMillis = System.currentTimeMillis() + waitMillis;
+        while (true) {
+            WeeklyAdherenceReport report = useServerFilter ? findReportWithoutScan(userId) : findReport(userId);
+            if (report != null) {
+                return report;
+            }
+            if (System.currentTimeMillis() >= deadlineMillis) {
+                return useServerFilter ? scanAndLog(userId) : null;
+            }
+            Thread.sleep(pollIntervalMillis);
+        }
+    }
+
+    /** True if the study has a report for the participant. */
+    public boolean hasReport(String userId) throws IOException {
+        return findReport(userId) != null;
+    }
+
+    /** Forgets the participant's report, so the next lookup goes back to the server. */
+    public void invalidate(String userId) {
+        reportsByUserId.remove(userId);
+    }
+
+    /** Forgets all reports. */
+    public void refresh() {
+        reportsByUserId.clear();
+    }
+
+    /** Stops the scan threads. A scan in progress is abandoned. */
+    public synchronized void shutdown() {
+        if (scanExecutor != null) {
+            scanExecutor.shutdownNow();
+            scanExecutor = null;
+        }
+    }
+
+    // Checks the index, then the server-side search (if turned on). Returns null if neither has the report.
+    private WeeklyAdherenceReport findReportWithoutScan(String userId) throws IOException {
+        WeeklyAdherenceReport report = reportsByUserId.get(userId);
+        if (report != null || !useServerFilter) {
+            return report;
+        }
+
+        long startMillis = System.currentTimeMillis();
+        AdherenceReportSearch search = newSearch(0).idFilter(userId);
+        report = indexPage(adherenceApi.getStudyParticipantWeeklyAdherenceReports(studyId, search).execute().body(),
+                userId);
+        LOG.info("Looked up adherence report for " + userId + " by filter in " +
+                (System.currentTimeMillis() - startMillis) + "ms, found=" + (report != null));
+        return report;
+    }
+
+    private WeeklyAdherenceReport scanAndLog(String userId) throws IOException {
+        long startMillis = System.currentTimeMillis();
+        WeeklyAdherenceReport report = scan(userId);
+        LOG.info("Looked up adherence report for " + userId + " by scan in " +
+                (System.currentTimeMillis() - startMillis) + "ms, found=" + (report != null));
+        return report;
+    }
+
+    private WeeklyAdherenceReport scan(String userId) throws IOException {
+        // The first page tells us how many pages there are.
+        WeeklyAdherenceReportList firstPage = adherenceApi.getStudyParticipantWeeklyAdherenceReports(studyId,
+                newSearch(0)).execute().body();
+        WeeklyAdherenceReport report = indexPage(firstPage, userId);
+        int total = firstPage.getTotal() != null ? firstPage.getTotal() : 0;
+        if (report != null || total <= pageSize) {
+            return report;
+        }
+
+        // The match future completes as soon as any page has the report. Remaining pages that haven't started see
+        // that and return without fetching.
+        CompletableFuture<WeeklyAdherenceReport> matchFuture = new CompletableFuture<>();
+        ExecutorService executorService = getScanExecutor();
+        try {
+            List<CompletableFuture<Void>> pageFutureList = new ArrayList<>();
+            for (int offset = pageSize; offset < total; offset += pageSize) {
+                int oneOffset = offset;
+                pageFutureList.add(CompletableFuture.runAsync(() -> {
+                    if (matchFuture.isDone()) {
+                        return;
+                    }
+                    try {
+                        WeeklyAdherenceReport pageReport = indexPage(adherenceApi
+                                .getStudyParticipantWeeklyAdherenceReports(studyId, newSearch(oneOffset)).execute()
+                                .body(), userId);
+                        if (pageReport != null) {
+                            matchFuture.complete(pageReport);
+                        }
+                    } catch (IOException ex) {
+                        throw new UncheckedIOException(ex);
+                    }
+                }, executorService));
+            }
+            CompletableFuture<Void> allPagesFuture = CompletableFuture.allOf(pageFutureList.toArray(
+                    new CompletableFuture[0]));
+            CompletableFuture.anyOf(matchFuture, allPagesFuture).join();
+
+            // A page completes the match before it finishes, so if all pages are done, the match is already set.
+            return matchFuture.getNow(null);
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) ex.getCause()).getCause();
+            }
+            throw ex;
+        }
+    }
+
+    // Created on first use, since most lookups never scan.
+    private synchronized ExecutorService getScanExecutor() {
+        if (scanExecutor == null) {
+            scanExecutor = Executors.newFixedThreadPool(numThreads, new ThreadFactoryBuilder().setNameFormat(
+                    "adherence-scan-%d").setDaemon(true).build());
+        }
+        return scanExecutor;
+    }
+
+    // Indexes every report in the page. Returns the report for the given user, or null if it's not in the page.
+    private WeeklyAdherenceReport indexPage(WeeklyAdherenceReportList page, String userId) {
+        WeeklyAdherenceReport match = null;
+        for (WeeklyAdherenceReport oneReport : page.getItems()) {
+            String reportUserId = oneReport.getParticipant().getIdentifier();
+            reportsByUserId.put(reportUserId, oneReport);
+            if (reportUserId.equals(userId)) {
+                match = oneReport;
+            }
+        }
+        return match;
+    }
+
+    private AdherenceReportSearch newSearch(int offset) {
+        return new AdherenceReportSearch().testFilter(TestFilter.TEST).pageSize(pageSize).offsetBy(offset);
+    }
+}
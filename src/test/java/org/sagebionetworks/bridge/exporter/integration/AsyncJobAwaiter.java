@@ -0,0 +1,118 @@
+package org.sagebionetworks.bridge.exporter.integration;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.sagebionetworks.client.exceptions.SynapseResultNotReadyException;
+
+/**
+ * Polls a Synapse async job until its result is ready. Returns as soon as the result is available, backs off
+ * exponentially between polls while the job is still running, and gives up after a timeout. Use await() to block the
+ * calling thread, or awaitAsync() to poll from a shared scheduler and executor.
+ */
+public class AsyncJobAwaiter {
+    public static final long DEFAULT_INITIAL_DELAY_MILLIS = 250;
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 5000;
+    public static final long DEFAULT_TIMEOUT_MILLIS = 60000;
+
+    /** Gets the job result. Throws SynapseResultNotReadyException if the job is still running. */
+    @FunctionalInterface
+    public interface ResultGetter<T> {
+        T get() throws Exception;
+    }
+
+    private long initialDelayMillis = DEFAULT_INITIAL_DELAY_MILLIS;
+    private long maxDelayMillis = DEFAULT_MAX_DELAY_MILLIS;
+    private long timeoutMillis = DEFAULT_TIMEOUT_MILLIS;
+
+    /** Delay before the first poll. Jobs are never ready immediately after they're started. */
+    public AsyncJobAwaiter withInitialDelayMillis(long initialDelayMillis) {
+        this.initialDelayMillis = initialDelayMillis;
+        return this;
+    }
+
+    /** Upper bound on the delay between polls. */
+    public AsyncJobAwaiter withMaxDelayMillis(long maxDelayMillis) {
+        this.maxDelayMillis = maxDelayMillis;
+        return this;
+    }
+
+    /** Total time to wait for the result. */
+    public AsyncJobAwaiter withTimeoutMillis(long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+        return this;
+    }
+
+    /**
+     * Polls the job on the calling thread until the result is ready. Throws TimeoutException (with the given
+     * description) if the job doesn't finish in time.
+     */
+    public <T> T await(String description, ResultGetter<T> getter) throws Exception {
+        long deadlineMillis = System.currentTimeMillis() + timeoutMillis;
+        long delayMillis = initialDelayMillis;
+        while (true) {
+            Thread.sleep(delayMillis);
+            try {
+                return getter.get();
+            } catch (SynapseResultNotReadyException ex) {
+                if (System.currentTimeMillis() >= deadlineMillis) {
+                    throw new TimeoutException("Timed out waiting for " + description + " after " + timeoutMillis +
+                            "ms");
+                }
+                delayMillis = nextDelay(delayMillis);
+            }
+        }
+    }
+
+    /**
+     * Polls the job until the result is ready. The scheduler only times the polls and hands them to pollExecutor,
+     * which makes the (blocking) getter calls, so one scheduler thread can serve many jobs without a slow poll
+     * delaying the others. The returned future completes exceptionally with TimeoutException if the job doesn't
+     * finish in time, or with whatever error the getter throws.
+     */
+    public <T> CompletableFuture<T> awaitAsync(ScheduledExecutorService scheduler, Executor pollExecutor,
+            String description, ResultGetter<T> getter) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        long deadlineMillis = System.currentTimeMillis() + timeoutMillis;
+        schedulePoll(scheduler, pollExecutor, description, getter, future, deadlineMillis, initialDelayMillis);
+        return future;
+    }
+
+    private <T> void schedulePoll(ScheduledExecutorService scheduler, Executor pollExecutor, String description,
+            ResultGetter<T> getter, CompletableFuture<T> future, long deadlineMillis, long delayMillis) {
+        scheduler.schedule(() -> {
+            try {
+                pollExecutor.execute(() -> poll(scheduler, pollExecutor, description, getter, future, deadlineMillis,
+                        delayMillis));
+            } catch (RejectedExecutionException ex) {
+                // The executor was shut down.
+                future.completeExceptionally(ex);
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private <T> void poll(ScheduledExecutorService scheduler, Executor pollExecutor, String description,
+            ResultGetter<T> getter, CompletableFuture<T> future, long deadlineMillis, long delayMillis) {
+        try {
+            future.complete(getter.get());
+        } catch (SynapseResultNotReadyException ex) {
+            if (System.currentTimeMillis() >= deadlineMillis) {
+                future.completeExceptionally(new TimeoutException("Timed out waiting for " + description +
+                        " after " + timeoutMillis + "ms"));
+                return;
+            }
+            schedulePoll(scheduler, pollExecutor, description, getter, future, deadlineMillis,
+                    nextDelay(delayMillis));
+        } catch (Exception ex) {
+            future.completeExceptionally(ex);
+        }
+    }
+
+    private long nextDelay(long delayMillis) {
+        return Math.min(delayMillis * 2, maxDelayMillis);
+    }
+}
@@ -15,10 +15,11 @@ import java.security.cert.X509Certificate;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
-import com.amazonaws.auth.AWSCredentialsProvider;
-import com.amazonaws.regions.Regions;
-import com.amazonaws.services.s3.AmazonS3Client;
 import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.io.Files;
@@ -26,10 +27,7 @@ import org.apache.commons.lang3.RandomStringUtils;
 import org.joda.time.DateTime;
 import org.joda.time.LocalDate;
 import org.sagebionetworks.client.SynapseClient;
-import org.sagebionetworks.client.SynapseStsCredentialsProvider;
 import org.sagebionetworks.client.exceptions.SynapseException;
-import org.sagebionetworks.client.exceptions.SynapseNotFoundException;
-import org.sagebionetworks.client.exceptions.SynapseResultNotReadyException;
 import org.sagebionetworks.repo.model.annotation.v2.Annotations;
 import org.sagebionetworks.repo.model.annotation.v2.AnnotationsValue;
 import org.sagebionetworks.repo.model.annotation.v2.AnnotationsValueType;
@@ -74,12 +72,14 @@ import org.sagebionetworks.bridge.rest.model.TimeWindow;
 import org.sagebionetworks.bridge.rest.model.Timeline;
 import org.sagebionetworks.bridge.rest.model.UploadRequest;
 import org.sagebionetworks.bridge.rest.model.UploadSession;
-import org.sagebionetworks.bridge.s3.S3Helper;
 import org.sagebionetworks.bridge.user.TestUser;
 import org.sagebionetworks.bridge.user.TestUserHelper;
 import org.sagebionetworks.bridge.util.IntegTestUtils;
 
+// Deliberately serial. Tests in this class keep per-test state (user, schedule, assessment) in instance fields, so
+// they can't run concurrently with each other. The class still runs alongside other classes.
 @SuppressWarnings({ "ConstantConditions", "deprecation", "OptionalGetWithoutIsPresent" })
+@Test(singleThreaded = true)
 public class Exporter3Test {
     private static final Logger LOG = LoggerFactory.getLogger(Exporter3Test.class);
 
@@ -91,13 +91,24 @@ public class Exporter3Test {
     private static final String STUDY_ID = "study1";
     private static final byte[] UPLOAD_CONTENT = "This is the upload content".getBytes(StandardCharsets.UTF_8);
 
+    // Participant version queries used to be polled 5 times at 1 sec intervals.
+    private static final AsyncJobAwaiter PARTICIPANT_VERSION_QUERY_AWAITER = new AsyncJobAwaiter()
+            .withTimeoutMillis(5000);
+
+    // Runs verification steps. Two uploads' worth of steps (app and study) can be in flight at once.
+    private static final int VERIFICATION_THREADS = 6;
+
     private static TestUser adminDeveloperWorker;
     private static Exporter3Configuration ex3Config;
     private static Exporter3Configuration ex3ConfigForStudy;
     private static String rawDataBucket;
     private static SynapseClient synapseClient;
+    private static ExecutorService verificationExecutor;
+    private static SynapseS3ClientCache s3ClientCache;
+    private static SynapseChildLookupCache childLookupCache;
 
     private TestUser user;
+    private TestResources.Lease scheduleLease;
     private Schedule2 schedule;
     private Assessment assessment;
 
@@ -108,6 +119,9 @@ public class Exporter3Test {
 
         // Set up SynapseClient.
         synapseClient = TestUtils.getSynapseClient(config);
+        verificationExecutor = Executors.newFixedThreadPool(VERIFICATION_THREADS);
+        s3ClientCache = new SynapseS3ClientCache(synapseClient);
+        childLookupCache = new SynapseChildLookupCache(synapseClient);
 
         // Create admin account.
         adminDeveloperWorker = TestUserHelper.createAndSignInUser(Exporter3Test.class, false, Role.ADMIN,
@@ -124,28 +138,45 @@ public class Exporter3Test {
 
     @BeforeMethod
     public void before() throws Exception {
-        // Note: Consent also enrolls the participant in study1.
-        user = TestUserHelper.createAndSignInUser(Exporter3Test.class, true);
+        // Note: Consent also enrolls the participant in study1. verifyMetadata() expects participant version 1, so
+        // this has to be a user that no other test has turned sharing on for.
+        user = TestUserPool.consented().acquire();
     }
 
     @AfterMethod
     public void after() throws Exception {
         if (user != null) {
-            user.signOutAndDeleteUser();
+            TestUserPool.consented().release(user);
+            user = null;
         }
-        TestUser admin = TestUserHelper.getSignedInAdmin();
-        if (schedule != null) {
-            SchedulesV2Api schedulesApi = admin.getClient(SchedulesV2Api.class);
-            schedulesApi.deleteSchedule(schedule.getGuid()).execute();
-        }
-        if (assessment != null) {
-            AssessmentsApi assessmentsApi = admin.getClient(AssessmentsApi.class);
-            assessmentsApi.deleteAssessment(assessment.getGuid(), true).execute();
+        try {
+            TestUser admin = TestUserHelper.getSignedInAdmin();
+            if (schedule != null) {
+                SchedulesV2Api schedulesApi = admin.getClient(SchedulesV2Api.class);
+                schedulesApi.deleteSchedule(schedule.getGuid()).execute();
+                SuiteFixtures.get().forgetStudySchedule(STUDY_ID);
+            }
+            if (assessment != null) {
+                AssessmentsApi assessmentsApi = admin.getClient(AssessmentsApi.class);
+                assessmentsApi.deleteAssessment(assessment.getGuid(), true).execute();
+            }
+        } finally {
+            if (scheduleLease != null) {
+                scheduleLease.close();
+                scheduleLease = null;
+            }
         }
     }
 
     @AfterClass
     public static void afterClass() throws Exception {
+        if (verificationExecutor != null) {
+            verificationExecutor.shutdown();
+        }
+        if (s3ClientCache != null) {
+            s3ClientCache.shutdown();
+        }
+
         // Clean up Synapse resources.
         deleteEx3Resources();
 
@@ -210,8 +241,8 @@ public class Exporter3Test {
     // This specific test will test no_sharing and redrives.
     @Test
     public void noSharingAndRedrives() throws Exception {
-        // Participants created by TestUserHelper (UserAdminService) are set to no_sharing by default. No need to
-        // change the participant here.
+        // Participants created by TestUserHelper (UserAdminService) are set to no_sharing by default, and pooled users
+        // are reset to no_sharing when they're returned. No need to change the participant here.
 
         // Upload file to Bridge.
         UploadInfo uploadInfo = uploadFile(UPLOAD_CONTENT, false);
@@ -241,12 +272,17 @@ public class Exporter3Test {
         // exported.
         usersApi.completeUploadSession(uploadId, true, true).execute();
         Thread.sleep(2000);
+
+        // The lookups above may have cached misses. Look again now that the file should exist.
+        childLookupCache.invalidate(rawFolderId, todaysDateString);
         todayFolderId = getSynapseChildByName(rawFolderId, todaysDateString);
+        childLookupCache.invalidate(todayFolderId, exportedFilename);
         String sharedFileId = getSynapseChildByName(todayFolderId, exportedFilename);
         assertNotNull(sharedFileId);
 
-        // Delete the file from Synapse and redrive again. We have a new file entity ID.
-        synapseClient.deleteEntityById(sharedFileId, true);
+        // Delete the file from Synapse and redrive again. We have a new file entity ID. (Deleting through the cache
+        // also drops the cached lookup for the file.)
+        childLookupCache.deleteEntityById(sharedFileId, true);
         usersApi.completeUploadSession(uploadId, true, true).execute();
         Thread.sleep(2000);
         String redrivenFileId = getSynapseChildByName(todayFolderId, exportedFilename);
@@ -256,6 +292,7 @@ public class Exporter3Test {
         // Redrive the upload a second time, but don't delete it first. Worker should silently handle this case.
         usersApi.completeUploadSession(uploadId, true, true).execute();
         Thread.sleep(2000);
+        childLookupCache.invalidate(todayFolderId, exportedFilename);
         String redrivenFileId2 = getSynapseChildByName(todayFolderId, exportedFilename);
         assertNotNull(redrivenFileId2);
         assertEquals(redrivenFileId2, redrivenFileId);
@@ -285,13 +322,16 @@ public class Exporter3Test {
         SchedulesV2Api schedulesApi = admin.getClient(SchedulesV2Api.class);
         
         String assessmentId = getClass().getSimpleName() + "-" + RandomStringUtils.randomAlphabetic(10);
-        
+
+        // Study can only have one schedule. Lease it, so we don't clobber another test's schedule in a parallel run.
+        scheduleLease = TestResources.leaseStudySchedule(STUDY_ID);
+
         assessment = new Assessment().title(assessmentId).osName("Universal").ownerId("sage-bionetworks")
                 .identifier(assessmentId);
         assessment = assessmentsApi.createAssessment(assessment).execute().body();
 
         schedule = new Schedule2();
-        schedule.setName("Test Schedule [Exporter3Test]");
+        schedule.setName(TestResources.uniqueName("Test Schedule [Exporter3Test]"));
         schedule.setDuration("P1W");
 
         Session session = new Session();
@@ -309,6 +349,7 @@ public class Exporter3Test {
         schedule.addSessionsItem(session);
 
         schedule = schedulesApi.saveScheduleForStudy(STUDY_ID, schedule).execute().body();
+        SuiteFixtures.get().recordStudySchedule(STUDY_ID, schedule.getGuid());
         
         Timeline timeline = schedulesApi.getTimelineForStudy(STUDY_ID).execute().body();
         
@@ -354,11 +395,16 @@ public class Exporter3Test {
         String filename = uploadInfo.filename;
         String uploadId = uploadInfo.uploadId;
 
-        // Verify Synapse and S3.
-        verifyUpload(ex3Config, uploadId, filename, false, expectedMetadata);
-        verifyUpload(ex3ConfigForStudy, uploadId, filename, true, expectedMetadata);
+        // Verify Synapse and S3 for the app and the study at the same time. The record in Bridge is only marked as
+        // exported at the end of the export, so verify it after both exports have been seen in Synapse and S3.
+        CompletableFuture<Void> appFuture = verifyUpload(ex3Config, uploadId, filename, false, expectedMetadata);
+        CompletableFuture<Void> studyFuture = verifyUpload(ex3ConfigForStudy, uploadId, filename, true,
+                expectedMetadata);
+        joinAll(CompletableFuture.allOf(appFuture, studyFuture).thenCompose(v -> runAsync(
+                () -> verifyRecord(uploadId))));
+    }
 
-        // Verify the record in Bridge.
+    private void verifyRecord(String uploadId) throws Exception {
         ForConsentedUsersApi usersApi = user.getClient(ForConsentedUsersApi.class);
         HealthDataRecordEx3 record = usersApi.getRecordEx3ById(uploadId, "true").execute().body();
         assertTrue(record.isExported());
@@ -376,59 +422,62 @@ public class Exporter3Test {
         assertTrue(record.getDownloadExpiration().isAfter(fiftyMinsAfter));
     }
 
-    private void verifyUpload(Exporter3Configuration ex3Config, String uploadId, String filename, boolean isForStudy,
-            Map<String,String> expectedMetadata) throws Exception {
-        // Verify Synapse file entity and annotations.
+    // Verifies the exported upload for the given Exporter 3 config. Verification is a graph of async steps:
+    // 1. Look up the exported file in Synapse, then verify its annotations, then use the annotations to verify the
+    //    Participant Version table.
+    // 2. Independently, verify the file in S3. The S3 key doesn't depend on anything in Synapse.
+    // The returned future completes when both branches are done.
+    private CompletableFuture<Void> verifyUpload(Exporter3Configuration ex3Config, String uploadId, String filename,
+            boolean isForStudy, Map<String,String> expectedMetadata) {
         String rawFolderId = ex3Config.getRawDataFolderId();
         String todaysDateString = LocalDate.now(TestUtils.LOCAL_TIME_ZONE).toString();
         String exportedFilename = uploadId + '-' + filename;
 
-        // First, get the exported file.
-        String todayFolderId = getSynapseChildByName(rawFolderId, todaysDateString);
-        String exportedFileId = getSynapseChildByName(todayFolderId, exportedFilename);
+        // Synapse branch. First, get the exported file.
+        CompletableFuture<String> exportedFileIdFuture = supplyAsync(() -> {
+            String todayFolderId = getSynapseChildByName(rawFolderId, todaysDateString);
+            return getSynapseChildByName(todayFolderId, exportedFilename);
+        });
 
         // Now verify the annotations.
-        Annotations annotations = synapseClient.getAnnotationsV2(exportedFileId);
-        Map<String, AnnotationsValue> annotationMap = annotations.getAnnotations();
-        Map<String, String> flattenedAnnotationMap = new HashMap<>();
-        for (Map.Entry<String, AnnotationsValue> annotationEntry : annotationMap.entrySet()) {
-            String annotationKey = annotationEntry.getKey();
-            AnnotationsValue annotationsValue = annotationEntry.getValue();
-            if ("participantVersion".equals(annotationKey)) {
-                // participantVersion is special. This needs to be joined with the ParticipantVersion table, so it's
-                // a number.
-                assertEquals(annotationsValue.getType(), AnnotationsValueType.LONG);
+        CompletableFuture<Map<String, String>> annotationsFuture = exportedFileIdFuture.thenCompose(
+                exportedFileId -> supplyAsync(() -> {
+                    Annotations annotations = synapseClient.getAnnotationsV2(exportedFileId);
+                    Map<String, String> flattenedAnnotationMap = flattenAnnotations(annotations.getAnnotations());
+                    verifyMetadata(flattenedAnnotationMap, uploadId, expectedMetadata);
+                    return flattenedAnnotationMap;
+                }));
+
+        // Verify the Participant Version table.
+        CompletableFuture<Void> participantVersionFuture = annotationsFuture.thenCompose(
+                flattenedAnnotationMap -> runAsync(() -> verifyParticipantVersion(ex3Config,
+                        flattenedAnnotationMap)));
+
+        // S3 branch.
+        CompletableFuture<Void> s3Future = runAsync(() -> {
+            // Verify the file in S3, using STS credentials for the raw data folder.
+            S3ContentVerifier contentVerifier = new S3ContentVerifier(s3ClientCache.getS3Client(rawFolderId,
+                    StsPermission.read_only));
+
+            String expectedS3Key;
+            if (isForStudy) {
+                expectedS3Key = IntegTestUtils.TEST_APP_ID + '/' + STUDY_ID + '/' + todaysDateString + '/' +
+                        exportedFilename;
             } else {
-                assertEquals(annotationsValue.getType(), AnnotationsValueType.STRING);
+                expectedS3Key = IntegTestUtils.TEST_APP_ID + '/' + todaysDateString + '/' + exportedFilename;
             }
-            assertEquals(annotationsValue.getValue().size(), 1);
-            flattenedAnnotationMap.put(annotationKey, annotationsValue.getValue().get(0));
-        }
-        verifyMetadata(flattenedAnnotationMap, uploadId, expectedMetadata);
-
-        // Get the STS token and verify the file in S3.
-        AWSCredentialsProvider awsCredentialsProvider = new SynapseStsCredentialsProvider(synapseClient, rawFolderId,
-                StsPermission.read_only);
-        AmazonS3Client s3Client = new AmazonS3Client(awsCredentialsProvider).withRegion(Regions.US_EAST_1);
-        S3Helper s3Helper = new S3Helper();
-        s3Helper.setS3Client(s3Client);
-
-        String expectedS3Key;
-        if (isForStudy) {
-            expectedS3Key = IntegTestUtils.TEST_APP_ID + '/' + STUDY_ID + '/' + todaysDateString + '/' +
-                    exportedFilename;
-        } else {
-            expectedS3Key = IntegTestUtils.TEST_APP_ID + '/' + todaysDateString + '/' + exportedFilename;
-        }
-        byte[] s3Bytes = s3Helper.readS3FileAsBytes(rawDataBucket, expectedS3Key);
-        assertEquals(s3Bytes, UPLOAD_CONTENT);
-
-        ObjectMetadata s3Metadata = s3Helper.getObjectMetadata(rawDataBucket, expectedS3Key);
-        assertEquals(s3Metadata.getSSEAlgorithm(), ObjectMetadata.AES_256_SERVER_SIDE_ENCRYPTION);
-        assertEquals(s3Metadata.getContentType(), CONTENT_TYPE_TEXT_PLAIN);
-        verifyMetadata(s3Metadata.getUserMetadata(), uploadId, expectedMetadata);
+            ObjectMetadata s3Metadata = contentVerifier.assertContentMatches(rawDataBucket, expectedS3Key,
+                    UPLOAD_CONTENT);
+            assertEquals(s3Metadata.getSSEAlgorithm(), ObjectMetadata.AES_256_SERVER_SIDE_ENCRYPTION);
+            assertEquals(s3Metadata.getContentType(), CONTENT_TYPE_TEXT_PLAIN);
+            verifyMetadata(s3Metadata.getUserMetadata(), uploadId, expectedMetadata);
+        });
+
+        return CompletableFuture.allOf(participantVersionFuture, s3Future);
+    }
 
-        // Verify the Participant Version table.
+    private static void verifyParticipantVersion(Exporter3Configuration ex3Config,
+            Map<String, String> flattenedAnnotationMap) throws Exception {
         String healthCode = flattenedAnnotationMap.get("healthCode");
         String participantVersionStr = flattenedAnnotationMap.get("participantVersion");
         String participantVersionTableId = ex3Config.getParticipantVersionTableId();
@@ -437,18 +486,9 @@ public class Exporter3Test {
         String queryJobId = synapseClient.queryTableEntityBundleAsyncStart(query, null, null,
                 SynapseClient.QUERY_PARTMASK, participantVersionTableId);
 
-        QueryResultBundle queryResultBundle = null;
-        for (int loops = 0; loops < 5; loops++) {
-            // Poll until result is ready.
-            Thread.sleep(1000);
-            try {
-                queryResultBundle = synapseClient.queryTableEntityBundleAsyncGet(queryJobId,
-                        participantVersionTableId);
-            } catch (SynapseResultNotReadyException ex) {
-                // Wait and try again.
-            }
-        }
-        assertNotNull(queryResultBundle, "Timed out querying for participant version");
+        // Poll until result is ready.
+        QueryResultBundle queryResultBundle = PARTICIPANT_VERSION_QUERY_AWAITER.await("participant version query",
+                () -> synapseClient.queryTableEntityBundleAsyncGet(queryJobId, participantVersionTableId));
 
         RowSet queryRowSet = queryResultBundle.getQueryResult().getQueryResults();
         List<SelectColumn> columnList = queryRowSet.getHeaders();
@@ -475,6 +515,52 @@ public class Exporter3Test {
         assertTrue(participantModifiedOn > oneHourAgo.getMillis());
     }
 
+    // Verification steps that return a value, and ones that don't. Both can throw checked exceptions.
+    @FunctionalInterface
+    private interface VerificationStep<T> {
+        T get() throws Exception;
+    }
+
+    @FunctionalInterface
+    private interface VerificationAction {
+        void run() throws Exception;
+    }
+
+    private static <T> CompletableFuture<T> supplyAsync(VerificationStep<T> step) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return step.get();
+            } catch (RuntimeException ex) {
+                throw ex;
+            } catch (Exception ex) {
+                throw new CompletionException(ex);
+            }
+        }, verificationExecutor);
+    }
+
+    private static CompletableFuture<Void> runAsync(VerificationAction action) {
+        return supplyAsync(() -> {
+            action.run();
+            return null;
+        });
+    }
+
+    // Waits for all futures. If any failed, rethrows the first failure, unwrapped, so assertion failures show up as
+    // assertion failures.
+    private static void joinAll(CompletableFuture<?>... futures) throws Exception {
+        try {
+            CompletableFuture.allOf(futures).join();
+        } catch (CompletionException ex) {
+            Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            } else if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw ex;
+        }
+    }
+
     private static class UploadInfo {
         String filename;
         String uploadId;
@@ -518,15 +604,32 @@ public class Exporter3Test {
         return uploadInfo;
     }
 
+    // Returns null if the child doesn't exist. Lookups are cached, since the date folder rarely changes within a run.
     private String getSynapseChildByName(String parentId, String childName) throws SynapseException {
-        try {
-            return synapseClient.lookupChild(parentId, childName);
-        } catch (SynapseNotFoundException ex) {
-            return null;
+        return childLookupCache.lookupChild(parentId, childName);
+    }
+
+    // Flattens single-valued annotations into a map of strings, so they can be compared with S3 metadata.
+    // Package-scoped so the benchmarks module can measure it.
+    static Map<String, String> flattenAnnotations(Map<String, AnnotationsValue> annotationMap) {
+        Map<String, String> flattenedAnnotationMap = new HashMap<>();
+        for (Map.Entry<String, AnnotationsValue> annotationEntry : annotationMap.entrySet()) {
+            String annotationKey = annotationEntry.getKey();
+            AnnotationsValue annotationsValue = annotationEntry.getValue();
+            if ("participantVersion".equals(annotationKey)) {
+                // participantVersion is special. This needs to be joined with the ParticipantVersion table, so it's
+                // a number.
+                assertEquals(annotationsValue.getType(), AnnotationsValueType.LONG);
+            } else {
+                assertEquals(annotationsValue.getType(), AnnotationsValueType.STRING);
+            }
+            assertEquals(annotationsValue.getValue().size(), 1);
+            flattenedAnnotationMap.put(annotationKey, annotationsValue.getValue().get(0));
         }
+        return flattenedAnnotationMap;
     }
 
-    private static void verifyMetadata(Map<String, String> metadataMap, String expectedRecordId, Map<String,String> expectedValues) {
+    static void verifyMetadata(Map<String, String> metadataMap, String expectedRecordId, Map<String,String> expectedValues) {
         assertEquals(metadataMap.size(), 6 + expectedValues.size());
         assertTrue(metadataMap.containsKey("clientInfo"));
         assertTrue(metadataMap.containsKey("healthCode"));
@@ -0,0 +1,160 @@
+package org.sagebionetworks.bridge.exporter.integration;
+
+import java.math.BigDecimal;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.amazonaws.services.dynamodbv2.document.Item;
+import com.amazonaws.services.dynamodbv2.document.PrimaryKey;
+import com.amazonaws.services.dynamodbv2.document.Table;
+import com.amazonaws.services.dynamodbv2.document.spec.GetItemSpec;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.google.common.hash.Hashing;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.sagebionetworks.bridge.json.DefaultObjectMapper;
+
+/**
+ * Writes fixtures only when they've changed. Nothing is stored besides the fixtures themselves, so the tables the
+ * worker owns only ever hold the items the worker reads.
+ *
+ * For DynamoDB items, putIfChanged() reads the live item and compares it with the desired item, attribute by
+ * attribute. Only the attributes in the desired item are compared, so attributes the test doesn't own don't force a
+ * write, and they're kept when we do write.
+ *
+ * Fixtures that don't live in DynamoDB (eg, settings on the App) use runIfChanged(). The action is responsible for
+ * comparing with the live fixture and only updating what's missing, the same way putIfChanged() does for items.
+ *
+ * Either way, the desired content's hash is remembered for the rest of the JVM, so a fixture that several test classes
+ * ensure (eg, NotificationConfig) is only read once per suite.
+ */
+public class FixtureReconciler {
+    private static final Logger LOG = LoggerFactory.getLogger(FixtureReconciler.class);
+
+    // Hashes we've written or confirmed in this JVM, by fixture key (for items, the table name and primary key).
+    private static final ConcurrentMap<String, String> HASHES_BY_FIXTURE_KEY = new ConcurrentHashMap<>();
+
+    /**
+     * Puts the desired item, unless the live item already has the same values for every attribute in the desired
+     * item. keyNames are the item's primary key attribute names (hash key, then range key, if any). Returns true if
+     * the item was written.
+     */
+    public static boolean putIfChanged(Table table, Item desiredItem, String... keyNames) {
+        PrimaryKey primaryKey = new PrimaryKey();
+        StringBuilder fixtureKeyBuilder = new StringBuilder(table.getTableName());
+        for (String oneKeyName : keyNames) {
+            Object keyValue = desiredItem.get(oneKeyName);
+            primaryKey.addComponent(oneKeyName, keyValue);
+            fixtureKeyBuilder.append(':').append(keyValue);
+        }
+        String fixtureKey = fixtureKeyBuilder.toString();
+        String desiredHash = hash(desiredItem.asMap());
+
+        if (desiredHash.equals(HASHES_BY_FIXTURE_KEY.get(fixtureKey))) {
+            return false;
+        }
+
+        Item liveItem = table.getItem(new GetItemSpec().withPrimaryKey(primaryKey).withConsistentRead(true));
+        if (liveItem != null && containsAll(liveItem.asMap(), desiredItem.asMap())) {
+            LOG.info("Fixture " + fixtureKey + " is up to date");
+            HASHES_BY_FIXTURE_KEY.put(fixtureKey, desiredHash);
+            return false;
+        }
+
+        // Start from the live item, so attributes we don't own survive the put. This leaves the caller's item as is.
+        Item itemToPut = liveItem != null ? liveItem : new Item();
+        for (Map.Entry<String, Object> oneAttribute : desiredItem.asMap().entrySet()) {
+            itemToPut.with(oneAttribute.getKey(), oneAttribute.getValue());
+        }
+        table.putItem(itemToPut);
+        HASHES_BY_FIXTURE_KEY.put(fixtureKey, desiredHash);
+        LOG.info("Wrote fixture " + fixtureKey);
+        return true;
+    }
+
+    /**
+     * Runs the action, unless it already ran in this JVM for the same fixture key and desired content. desiredContent
+     * is anything Jackson can serialize that describes the fixture. The action should read the live fixture and only
+     * update it if it differs. Returns true if the action ran.
+     */
+    public static boolean runIfChanged(String fixtureKey, Object desiredContent, FixtureAction action)
+            throws Exception {
+        String desiredHash = hash(DefaultObjectMapper.INSTANCE.convertValue(desiredContent, Map.class));
+        if (desiredHash.equals(HASHES_BY_FIXTURE_KEY.get(fixtureKey))) {
+            return false;
+        }
+        action.run();
+        HASHES_BY_FIXTURE_KEY.put(fixtureKey, desiredHash);
+        return true;
+    }
+
+    // True if every desired attribute is in the live attributes, with an equal value.
+    private static boolean containsAll(Map<String, Object> liveAttributeMap, Map<String, Object> desiredAttributeMap) {
+        for (Map.Entry<String, Object> oneDesiredAttribute : desiredAttributeMap.entrySet()) {
+            if (!valueEquals(liveAttributeMap.get(oneDesiredAttribute.getKey()), oneDesiredAttribute.getValue())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // DynamoDB reads numbers back as BigDecimal, so compare numbers by value, and compare lists and maps element by
+    // element, since they can hold numbers.
+    private static boolean valueEquals(Object liveValue, Object desiredValue) {
+        if (liveValue instanceof Number && desiredValue instanceof Number) {
+            return new BigDecimal(liveValue.toString()).compareTo(new BigDecimal(desiredValue.toString())) == 0;
+        } else if (liveValue instanceof List && desiredValue instanceof List) {
+            List<?> liveList = (List<?>) liveValue;
+            List<?> desiredList = (List<?>) desiredValue;
+            if (liveList.size() != desiredList.size()) {
+                return false;
+            }
+            Iterator<?> liveIterator = liveList.iterator();
+            for (Object oneDesiredElement : desiredList) {
+                if (!valueEquals(liveIterator.next(), oneDesiredElement)) {
+                    return false;
+                }
+            }
+            return true;
+        } else if (liveValue instanceof Map && desiredValue instanceof Map) {
+            Map<?, ?> liveMap = (Map<?, ?>) liveValue;
+            Map<?, ?> desiredMap = (Map<?, ?>) desiredValue;
+            if (!liveMap.keySet().equals(desiredMap.keySet())) {
+                return false;
+            }
+            for (Map.Entry<?, ?> oneDesiredEntry : desiredMap.entrySet()) {
+                if (!valueEquals(liveMap.get(oneDesiredEntry.getKey()), oneDesiredEntry.getValue())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        // Set.equals() doesn't depend on the set implementation or order, so sets are covered here too.
+        return Objects.equals(liveValue, desiredValue);
+    }
+
+    // Keys are sorted, so the hash doesn't depend on the order attributes were added in.
+    private static String hash(Map<?, ?> attributeMap) {
+        byte[] canonicalBytes;
+        try {
+            canonicalBytes = DefaultObjectMapper.INSTANCE.writer().with(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS)
+                    .writeValueAsBytes(attributeMap);
+        } catch (JsonProcessingException ex) {
+            // Should never happen, since items only hold JSON-compatible values.
+            throw new IllegalStateException("Error serializing fixture item", ex);
+        }
+        return Hashing.sha256().hashBytes(canonicalBytes).toString();
+    }
+
+    /** Creates or updates a fixture. */
+    @FunctionalInterface
+    public interface FixtureAction {
+        void run() throws Exception;
+    }
+}
@@ -0,0 +1,361 @@
+package org.sagebionetworks.bridge.exporter.integration;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import com.amazonaws.services.dynamodbv2.AbstractAmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.AttributeAction;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.AttributeValueUpdate;
+import com.amazonaws.services.dynamodbv2.model.ComparisonOperator;
+import com.amazonaws.services.dynamodbv2.model.Condition;
+import com.amazonaws.services.dynamodbv2.model.ConditionalOperator;
+import com.amazonaws.services.dynamodbv2.model.DeleteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.DeleteItemResult;
+import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.GetItemResult;
+import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+import com.amazonaws.services.dynamodbv2.model.PutItemResult;
+import com.amazonaws.services.dynamodbv2.model.QueryRequest;
+import com.amazonaws.services.dynamodbv2.model.QueryResult;
+import com.amazonaws.services.dynamodbv2.model.ResourceNotFoundException;
+import com.amazonaws.services.dynamodbv2.model.ReturnConsumedCapacity;
+import com.amazonaws.services.dynamodbv2.model.ReturnItemCollectionMetrics;
+import com.amazonaws.services.dynamodbv2.model.ReturnValue;
+import com.amazonaws.services.dynamodbv2.model.ScanRequest;
+import com.amazonaws.services.dynamodbv2.model.ScanResult;
+import com.amazonaws.services.dynamodbv2.model.Select;
+import com.amazonaws.services.dynamodbv2.model.UpdateItemRequest;
+import com.amazonaws.services.dynamodbv2.model.UpdateItemResult;
+
+/**
+ * In-memory stand-in for DynamoDB, for use with the DynamoDB document API (DynamoDB and Table). Tables must be
+ * registered with their key schema before use. Only the calls the suite uses are supported: put, get, delete, update
+ * with attribute updates, query with key conditions (paged with Limit), and (parallel) scan with scan filters.
+ *
+ * Every other request field (expressions, conditions, projections, indexes, and so on) is rejected with
+ * IllegalArgumentException, rather than ignored, so a caller never silently gets different results than it would get
+ * from DynamoDB.
+ */
+public class InMemoryAmazonDynamoDB extends AbstractAmazonDynamoDB {
+    // Range keys sort numerically if they're numbers, and lexically otherwise, same as DynamoDB.
+    private static final Comparator<AttributeValue> KEY_COMPARATOR = (a, b) -> {
+        if (a.getN() != null && b.getN() != null) {
+            return new BigDecimal(a.getN()).compareTo(new BigDecimal(b.getN()));
+        }
+        return keyString(a).compareTo(keyString(b));
+    };
+
+    private final ConcurrentMap<String, MemoryTable> tablesByName = new ConcurrentHashMap<>();
+
+    /**
+     * Registers a table with the given key schema. rangeKeyName may be null for hash-only tables. Registering the same
+     * table twice is a no-op.
+     */
+    public void createTable(String tableName, String hashKeyName, String rangeKeyName) {
+        tablesByName.putIfAbsent(tableName, new MemoryTable(hashKeyName, rangeKeyName));
+    }
+
+    @Override
+    public PutItemResult putItem(PutItemRequest request) {
+        rejectIfSet("PutItem", "ConditionExpression", request.getConditionExpression());
+        rejectIfSet("PutItem", "Expected", request.getExpected());
+        rejectIfSet("PutItem", "ConditionalOperator", request.getConditionalOperator());
+        rejectIfSet("PutItem", "ExpressionAttributeNames", request.getExpressionAttributeNames());
+        rejectIfSet("PutItem", "ExpressionAttributeValues", request.getExpressionAttributeValues());
+        rejectUnlessDefault("PutItem", "ReturnValues", request.getReturnValues(), ReturnValue.NONE);
+        rejectReturnMetrics("PutItem", request.getReturnConsumedCapacity(),
+                request.getReturnItemCollectionMetrics());
+        getTable(request.getTableName()).put(new HashMap<>(request.getItem()));
+        return new PutItemResult();
+    }
+
+    // Reads are always consistent, so ConsistentRead doesn't matter.
+    @Override
+    public GetItemResult getItem(GetItemRequest request) {
+        rejectIfSet("GetItem", "ProjectionExpression", request.getProjectionExpression());
+        rejectIfSet("GetItem", "AttributesToGet", request.getAttributesToGet());
+        rejectIfSet("GetItem", "ExpressionAttributeNames", request.getExpressionAttributeNames());
+        rejectReturnMetrics("GetItem", request.getReturnConsumedCapacity(), null);
+        Map<String, AttributeValue> item = getTable(request.getTableName()).get(request.getKey());
+        return new GetItemResult().withItem(item != null ? new HashMap<>(item) : null);
+    }
+
+    @Override
+    public DeleteItemResult deleteItem(DeleteItemRequest request) {
+        rejectIfSet("DeleteItem", "ConditionExpression", request.getConditionExpression());
+        rejectIfSet("DeleteItem", "Expected", request.getExpected());
+        rejectIfSet("DeleteItem", "ConditionalOperator", request.getConditionalOperator());
+        rejectIfSet("DeleteItem", "ExpressionAttributeNames", request.getExpressionAttributeNames());
+        rejectIfSet("DeleteItem", "ExpressionAttributeValues", request.getExpressionAttributeValues());
+        rejectUnlessDefault("DeleteItem", "ReturnValues", request.getReturnValues(), ReturnValue.NONE);
+        rejectReturnMetrics("DeleteItem", request.getReturnConsumedCapacity(),
+                request.getReturnItemCollectionMetrics());
+        getTable(request.getTableName()).delete(request.getKey());
+        return new DeleteItemResult();
+    }
+
+    @Override
+    public UpdateItemResult updateItem(UpdateItemRequest request) {
+        rejectIfSet("UpdateItem", "UpdateExpression (use AttributeUpdates)", request.getUpdateExpression());
+        rejectIfSet("UpdateItem", "ConditionExpression", request.getConditionExpression());
+        rejectIfSet("UpdateItem", "Expected", request.getExpected());
+        rejectIfSet("UpdateItem", "ConditionalOperator", request.getConditionalOperator());
+        rejectIfSet("UpdateItem", "ExpressionAttributeNames", request.getExpressionAttributeNames());
+        rejectIfSet("UpdateItem", "ExpressionAttributeValues", request.getExpressionAttributeValues());
+        rejectUnlessDefault("UpdateItem", "ReturnValues", request.getReturnValues(), ReturnValue.NONE);
+        rejectReturnMetrics("UpdateItem", request.getReturnConsumedCapacity(),
+                request.getReturnItemCollectionMetrics());
+
+        MemoryTable table = getTable(request.getTableName());
+        synchronized (table) {
+            Map<String, AttributeValue> item = table.get(request.getKey());
+            item = item != null ? new HashMap<>(item) : new HashMap<>(request.getKey());
+            if (request.getAttributeUpdates() != null) {
+                for (Map.Entry<String, AttributeValueUpdate> oneUpdate : request.getAttributeUpdates().entrySet()) {
+                    AttributeValueUpdate update = oneUpdate.getValue();
+                    if (AttributeAction.DELETE.toString().equals(update.getAction())) {
+                        item.remove(oneUpdate.getKey());
+                    } else if (AttributeAction.ADD.toString().equals(update.getAction()) &&
+                            item.containsKey(oneUpdate.getKey()) && update.getValue().getN() != null) {
+                        BigDecimal sum = new BigDecimal(item.get(oneUpdate.getKey()).getN())
+                                .add(new BigDecimal(update.getValue().getN()));
+                        item.put(oneUpdate.getKey(), new AttributeValue().withN(sum.toString()));
+                    } else {
+                        item.put(oneUpdate.getKey(), update.getValue());
+                    }
+                }
+            }
+            table.put(item);
+        }
+        return new UpdateItemResult();
+    }
+
+    // Pages like DynamoDB: with a Limit, the result has a LastEvaluatedKey if there are more items, and the next page
+    // starts after the ExclusiveStartKey. Reads are always consistent, so ConsistentRead doesn't matter.
+    @Override
+    public QueryResult query(QueryRequest request) {
+        rejectIfSet("Query", "KeyConditionExpression (use KeyConditions)", request.getKeyConditionExpression());
+        rejectIfSet("Query", "FilterExpression", request.getFilterExpression());
+        rejectIfSet("Query", "QueryFilter", request.getQueryFilter());
+        rejectIfSet("Query", "ConditionalOperator", request.getConditionalOperator());
+        rejectIfSet("Query", "IndexName", request.getIndexName());
+        rejectIfSet("Query", "ProjectionExpression", request.getProjectionExpression());
+        rejectIfSet("Query", "AttributesToGet", request.getAttributesToGet());
+        rejectIfSet("Query", "ExpressionAttributeNames", request.getExpressionAttributeNames());
+        rejectIfSet("Query", "ExpressionAttributeValues", request.getExpressionAttributeValues());
+        rejectUnlessDefault("Query", "Select", request.getSelect(), Select.ALL_ATTRIBUTES);
+        rejectReturnMetrics("Query", request.getReturnConsumedCapacity(), null);
+
+        MemoryTable table = getTable(request.getTableName());
+        Map<String, Condition> keyConditions = request.getKeyConditions();
+        Condition hashCondition = keyConditions.get(table.hashKeyName);
+        if (hashCondition == null) {
+            throw new IllegalArgumentException("Query must have a condition on hash key " + table.hashKeyName);
+        }
+        Condition rangeCondition = table.rangeKeyName != null ? keyConditions.get(table.rangeKeyName) : null;
+
+        List<Map<String, AttributeValue>> itemList = new ArrayList<>();
+        NavigableMap<AttributeValue, Map<String, AttributeValue>> partition = table.itemsByHashKey.get(
+                keyString(hashCondition.getAttributeValueList().get(0)));
+        if (partition != null) {
+            for (Map<String, AttributeValue> oneItem : partition.values()) {
+                if (rangeCondition == null || matches(oneItem.get(table.rangeKeyName), rangeCondition)) {
+                    itemList.add(new HashMap<>(oneItem));
+                }
+            }
+        }
+        boolean forward = !Boolean.FALSE.equals(request.getScanIndexForward());
+        if (!forward) {
+            Collections.reverse(itemList);
+        }
+
+        // Skip to the first item past the exclusive start key, in the direction of the query.
+        int startIndex = 0;
+        if (request.getExclusiveStartKey() != null) {
+            AttributeValue startRangeKey = table.rangeKey(request.getExclusiveStartKey());
+            while (startIndex < itemList.size()) {
+                int cmp = KEY_COMPARATOR.compare(table.rangeKey(itemList.get(startIndex)), startRangeKey);
+                if (forward ? cmp > 0 : cmp < 0) {
+                    break;
+                }
+                startIndex++;
+            }
+        }
+        int endIndex = itemList.size();
+        Map<String, AttributeValue> lastEvaluatedKey = null;
+        if (request.getLimit() != null && endIndex - startIndex > request.getLimit()) {
+            endIndex = startIndex + request.getLimit();
+            lastEvaluatedKey = table.keyOf(itemList.get(endIndex - 1));
+        }
+        List<Map<String, AttributeValue>> pageItemList = new ArrayList<>(itemList.subList(startIndex, endIndex));
+        return new QueryResult().withItems(pageItemList).withCount(pageItemList.size())
+                .withScannedCount(pageItemList.size()).withLastEvaluatedKey(lastEvaluatedKey);
+    }
+
+    // Scans return everything in one page, so Limit isn't supported. Items are assigned to segments by hash key, so
+    // each item is in exactly one segment, same as DynamoDB.
+    @Override
+    public ScanResult scan(ScanRequest request) {
+        rejectIfSet("Scan", "FilterExpression (use ScanFilter)", request.getFilterExpression());
+        rejectIfSet("Scan", "Limit", request.getLimit());
+        rejectIfSet("Scan", "ExclusiveStartKey", request.getExclusiveStartKey());
+        rejectIfSet("Scan", "IndexName", request.getIndexName());
+        rejectIfSet("Scan", "ProjectionExpression", request.getProjectionExpression());
+        rejectIfSet("Scan", "AttributesToGet", request.getAttributesToGet());
+        rejectIfSet("Scan", "ExpressionAttributeNames", request.getExpressionAttributeNames());
+        rejectIfSet("Scan", "ExpressionAttributeValues", request.getExpressionAttributeValues());
+        rejectUnlessDefault("Scan", "Select", request.getSelect(), Select.ALL_ATTRIBUTES);
+        rejectUnlessDefault("Scan", "ConditionalOperator", request.getConditionalOperator(),
+                ConditionalOperator.AND);
+        rejectReturnMetrics("Scan", request.getReturnConsumedCapacity(), null);
+
+        MemoryTable table = getTable(request.getTableName());
+        int totalSegments = request.getTotalSegments() != null ? request.getTotalSegments() : 1;
+        int segment = request.getSegment() != null ? request.getSegment() : 0;
+        Map<String, Condition> scanFilter = request.getScanFilter() != null ? request.getScanFilter() :
+                Collections.emptyMap();
+
+        List<Map<String, AttributeValue>> itemList = new ArrayList<>();
+        int scannedCount = 0;
+        for (Map.Entry<String, NavigableMap<AttributeValue, Map<String, AttributeValue>>> partitionEntry :
+                table.itemsByHashKey.entrySet()) {
+            if (Math.floorMod(partitionEntry.getKey().hashCode(), totalSegments) != segment) {
+                continue;
+            }
+            for (Map<String, AttributeValue> oneItem : partitionEntry.getValue().values()) {
+                scannedCount++;
+                boolean matchesAll = true;
+                for (Map.Entry<String, Condition> conditionEntry : scanFilter.entrySet()) {
+                    AttributeValue value = oneItem.get(conditionEntry.getKey());
+                    if (value == null || !matches(value, conditionEntry.getValue())) {
+                        matchesAll = false;
+                        break;
+                    }
+                }
+                if (matchesAll) {
+                    itemList.add(new HashMap<>(oneItem));
+                }
+            }
+        }
+        return new ScanResult().withItems(itemList).withCount(itemList.size()).withScannedCount(scannedCount);
+    }
+
+    private MemoryTable getTable(String tableName) {
+        MemoryTable table = tablesByName.get(tableName);
+        if (table == null) {
+            throw new ResourceNotFoundException("Table not registered with in-memory DynamoDB: " + tableName);
+        }
+        return table;
+    }
+
+    private static void rejectIfSet(String operation, String fieldName, Object value) {
+        boolean isSet = value != null && !(value instanceof Collection && ((Collection<?>) value).isEmpty()) &&
+                !(value instanceof Map && ((Map<?, ?>) value).isEmpty());
+        if (isSet) {
+            throw new IllegalArgumentException("InMemoryAmazonDynamoDB doesn't support " + fieldName + " in " +
+                    operation);
+        }
+    }
+
+    // For enum fields, the default value (or no value) is fine, since that's what we implement.
+    private static void rejectUnlessDefault(String operation, String fieldName, String value, Enum<?> defaultValue) {
+        if (value != null && !defaultValue.toString().equals(value)) {
+            throw new IllegalArgumentException("InMemoryAmazonDynamoDB doesn't support " + fieldName + "=" + value +
+                    " in " + operation);
+        }
+    }
+
+    // We don't track capacity or item collections, so we can only return NONE.
+    private static void rejectReturnMetrics(String operation, String returnConsumedCapacity,
+            String returnItemCollectionMetrics) {
+        rejectUnlessDefault(operation, "ReturnConsumedCapacity", returnConsumedCapacity,
+                ReturnConsumedCapacity.NONE);
+        rejectUnlessDefault(operation, "ReturnItemCollectionMetrics", returnItemCollectionMetrics,
+                ReturnItemCollectionMetrics.NONE);
+    }
+
+    private static boolean matches(AttributeValue value, Condition condition) {
+        List<AttributeValue> operandList = condition.getAttributeValueList();
+        int cmp = KEY_COMPARATOR.compare(value, operandList.get(0));
+        switch (ComparisonOperator.fromValue(condition.getComparisonOperator())) {
+            case EQ:
+                return cmp == 0;
+            case LT:
+                return cmp < 0;
+            case LE:
+                return cmp <= 0;
+            case GT:
+                return cmp > 0;
+            case GE:
+                return cmp >= 0;
+            case BETWEEN:
+                return cmp >= 0 && KEY_COMPARATOR.compare(value, operandList.get(1)) <= 0;
+            case BEGINS_WITH:
+                return keyString(value).startsWith(keyString(operandList.get(0)));
+            default:
+                throw new IllegalArgumentException("InMemoryAmazonDynamoDB doesn't support the " +
+                        condition.getComparisonOperator() + " key condition");
+        }
+    }
+
+    private static String keyString(AttributeValue value) {
+        return value.getS() != null ? value.getS() : value.getN();
+    }
+
+    // Items are partitioned by hash key and sorted by range key. Hash-only tables use the hash key as the range key.
+    private static class MemoryTable {
+        final String hashKeyName;
+        final String rangeKeyName;
+        final ConcurrentMap<String, NavigableMap<AttributeValue, Map<String, AttributeValue>>> itemsByHashKey =
+                new ConcurrentHashMap<>();
+
+        MemoryTable(String hashKeyName, String rangeKeyName) {
+            this.hashKeyName = hashKeyName;
+            this.rangeKeyName = rangeKeyName;
+        }
+
+        void put(Map<String, AttributeValue> item) {
+            itemsByHashKey.computeIfAbsent(keyString(item.get(hashKeyName)),
+                    k -> new ConcurrentSkipListMap<>(KEY_COMPARATOR)).put(rangeKey(item), item);
+        }
+
+        Map<String, AttributeValue> get(Map<String, AttributeValue> key) {
+            NavigableMap<AttributeValue, Map<String, AttributeValue>> partition = itemsByHashKey.get(
+                    keyString(key.get(hashKeyName)));
+            return partition != null ? partition.get(rangeKey(key)) : null;
+        }
+
+        void delete(Map<String, AttributeValue> key) {
+            NavigableMap<AttributeValue, Map<String, AttributeValue>> partition = itemsByHashKey.get(
+                    keyString(key.get(hashKeyName)));
+            if (partition != null) {
+                partition.remove(rangeKey(key));
+            }
+        }
+
+        AttributeValue rangeKey(Map<String, AttributeValue> itemOrKey) {
+            return itemOrKey.get(rangeKeyName != null ? rangeKeyName : hashKeyName);
+        }
+
+        // The item's primary key, as DynamoDB returns it in LastEvaluatedKey.
+        Map<String, AttributeValue> keyOf(Map<String, AttributeValue> item) {
+            Map<String, AttributeValue> key = new HashMap<>();
+            key.put(hashKeyName, item.get(hashKeyName));
+            if (rangeKeyName != null) {
+                key.put(rangeKeyName, item.get(rangeKeyName));
+            }
+            return key;
+        }
+    }
+}
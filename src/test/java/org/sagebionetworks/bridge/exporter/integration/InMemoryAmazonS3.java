@@ -0,0 +1,257 @@
+package org.sagebionetworks.bridge.exporter.integration;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadResult;
+import com.amazonaws.services.s3.model.DeleteObjectRequest;
+import com.amazonaws.services.s3.model.GetObjectMetadataRequest;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadResult;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.PutObjectResult;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import com.amazonaws.services.s3.model.UploadPartResult;
+import com.amazonaws.util.BinaryUtils;
+import com.amazonaws.util.IOUtils;
+import com.amazonaws.util.Md5Utils;
+
+/**
+ * In-memory stand-in for S3. This extends AmazonS3Client so it can be passed to S3Helper, but it never talks to the
+ * network. Only the object (including ranged gets) and multipart upload calls the suite uses are supported. The
+ * convenience overloads in AmazonS3Client all delegate to the request-based methods overridden here.
+ */
+@SuppressWarnings("deprecation")
+public class InMemoryAmazonS3 extends AmazonS3Client {
+    private final ConcurrentMap<String, StoredObject> objectsByBucketAndKey = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, MultipartUpload> multipartUploadsById = new ConcurrentHashMap<>();
+
+    public InMemoryAmazonS3() {
+        super(new AWSStaticCredentialsProvider(new BasicAWSCredentials("local", "local")));
+    }
+
+    @Override
+    public PutObjectResult putObject(PutObjectRequest request) {
+        byte[] content;
+        try {
+            if (request.getFile() != null) {
+                content = Files.readAllBytes(request.getFile().toPath());
+            } else {
+                content = IOUtils.toByteArray(request.getInputStream());
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+
+        ObjectMetadata metadata = request.getMetadata() != null ? request.getMetadata().clone() :
+                new ObjectMetadata();
+        String eTag = BinaryUtils.toHex(Md5Utils.computeMD5Hash(content));
+        metadata.setContentLength(content.length);
+        metadata.setHeader("ETag", eTag);
+        if (metadata.getSSEAlgorithm() == null) {
+            // Our buckets encrypt by default.
+            metadata.setSSEAlgorithm(ObjectMetadata.AES_256_SERVER_SIDE_ENCRYPTION);
+        }
+        put(request.getBucketName(), request.getKey(), content, metadata);
+
+        PutObjectResult result = new PutObjectResult();
+        result.setETag(eTag);
+        return result;
+    }
+
+    @Override
+    public S3Object getObject(GetObjectRequest request) {
+        StoredObject storedObject = get(request.getBucketName(), request.getKey());
+        S3Object s3Object = new S3Object();
+        s3Object.setBucketName(request.getBucketName());
+        s3Object.setKey(request.getKey());
+        ObjectMetadata metadata = storedObject.metadata.clone();
+        long[] range = request.getRange();
+        if (range == null) {
+            s3Object.setObjectContent(new ByteArrayInputStream(storedObject.content));
+        } else {
+            // Like S3, the range end is inclusive, and is clamped to the end of the object.
+            int start = (int) range[0];
+            int end = (int) Math.min(range[1], storedObject.content.length - 1);
+            if (start > end) {
+                AmazonS3Exception ex = new AmazonS3Exception("Invalid range " + range[0] + "-" + range[1]);
+                ex.setStatusCode(416);
+                ex.setErrorCode("InvalidRange");
+                throw ex;
+            }
+            s3Object.setObjectContent(new ByteArrayInputStream(storedObject.content, start, end - start + 1));
+            metadata.setContentLength(end - start + 1);
+        }
+        s3Object.setObjectMetadata(metadata);
+        return s3Object;
+    }
+
+    @Override
+    public ObjectMetadata getObjectMetadata(GetObjectMetadataRequest request) {
+        return get(request.getBucketName(), request.getKey()).metadata.clone();
+    }
+
+    @Override
+    public void deleteObject(DeleteObjectRequest request) {
+        objectsByBucketAndKey.remove(toMapKey(request.getBucketName(), request.getKey()));
+    }
+
+    @Override
+    public boolean doesObjectExist(String bucketName, String key) {
+        return objectsByBucketAndKey.containsKey(toMapKey(bucketName, key));
+    }
+
+    @Override
+    public InitiateMultipartUploadResult initiateMultipartUpload(InitiateMultipartUploadRequest request) {
+        String uploadId = UUID.randomUUID().toString();
+        ObjectMetadata metadata = request.getObjectMetadata() != null ? request.getObjectMetadata().clone() :
+                new ObjectMetadata();
+        multipartUploadsById.put(uploadId, new MultipartUpload(request.getBucketName(), request.getKey(),
+                metadata));
+
+        InitiateMultipartUploadResult result = new InitiateMultipartUploadResult();
+        result.setBucketName(request.getBucketName());
+        result.setKey(request.getKey());
+        result.setUploadId(uploadId);
+        return result;
+    }
+
+    @Override
+    public UploadPartResult uploadPart(UploadPartRequest request) {
+        byte[] content;
+        try {
+            content = IOUtils.toByteArray(request.getInputStream());
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        getMultipartUpload(request.getUploadId()).partsByNumber.put(request.getPartNumber(), content);
+
+        UploadPartResult result = new UploadPartResult();
+        result.setPartNumber(request.getPartNumber());
+        result.setETag(BinaryUtils.toHex(Md5Utils.computeMD5Hash(content)));
+        return result;
+    }
+
+    @Override
+    public CompleteMultipartUploadResult completeMultipartUpload(CompleteMultipartUploadRequest request) {
+        MultipartUpload upload = getMultipartUpload(request.getUploadId());
+        multipartUploadsById.remove(request.getUploadId());
+
+        // Concatenate parts in the requested order. Like S3, the ETag is the MD5 of the part MD5s, plus the number of
+        // parts.
+        ByteArrayOutputStream contentStream = new ByteArrayOutputStream();
+        ByteArrayOutputStream partMd5Stream = new ByteArrayOutputStream();
+        for (PartETag onePartETag : request.getPartETags()) {
+            byte[] partContent = upload.partsByNumber.get(onePartETag.getPartNumber());
+            if (partContent == null) {
+                AmazonS3Exception ex = new AmazonS3Exception("Part " + onePartETag.getPartNumber() +
+                        " was never uploaded.");
+                ex.setStatusCode(400);
+                ex.setErrorCode("InvalidPart");
+                throw ex;
+            }
+            contentStream.write(partContent, 0, partContent.length);
+            byte[] partMd5 = Md5Utils.computeMD5Hash(partContent);
+            partMd5Stream.write(partMd5, 0, partMd5.length);
+        }
+        byte[] content = contentStream.toByteArray();
+        String eTag = BinaryUtils.toHex(Md5Utils.computeMD5Hash(partMd5Stream.toByteArray())) + '-' +
+                request.getPartETags().size();
+
+        ObjectMetadata metadata = upload.metadata;
+        metadata.setContentLength(content.length);
+        metadata.setHeader("ETag", eTag);
+        if (metadata.getSSEAlgorithm() == null) {
+            metadata.setSSEAlgorithm(ObjectMetadata.AES_256_SERVER_SIDE_ENCRYPTION);
+        }
+        put(upload.bucketName, upload.key, content, metadata);
+
+        CompleteMultipartUploadResult result = new CompleteMultipartUploadResult();
+        result.setBucketName(upload.bucketName);
+        result.setKey(upload.key);
+        result.setETag(eTag);
+        return result;
+    }
+
+    @Override
+    public void abortMultipartUpload(AbortMultipartUploadRequest request) {
+        multipartUploadsById.remove(request.getUploadId());
+    }
+
+    /** Number of multipart uploads that were started and not yet completed or aborted. */
+    public int getPendingMultipartUploadCount() {
+        return multipartUploadsById.size();
+    }
+
+    // Package-scoped so that multipart uploads (and tests) can store objects directly.
+    void put(String bucketName, String key, byte[] content, ObjectMetadata metadata) {
+        objectsByBucketAndKey.put(toMapKey(bucketName, key), new StoredObject(content, metadata));
+    }
+
+    StoredObject get(String bucketName, String key) {
+        StoredObject storedObject = objectsByBucketAndKey.get(toMapKey(bucketName, key));
+        if (storedObject == null) {
+            AmazonS3Exception ex = new AmazonS3Exception("The specified key does not exist.");
+            ex.setStatusCode(404);
+            ex.setErrorCode("NoSuchKey");
+            throw ex;
+        }
+        return storedObject;
+    }
+
+    private MultipartUpload getMultipartUpload(String uploadId) {
+        MultipartUpload upload = multipartUploadsById.get(uploadId);
+        if (upload == null) {
+            AmazonS3Exception ex = new AmazonS3Exception("The specified upload does not exist.");
+            ex.setStatusCode(404);
+            ex.setErrorCode("NoSuchUpload");
+            throw ex;
+        }
+        return upload;
+    }
+
+    private static String toMapKey(String bucketName, String key) {
+        return bucketName + '/' + key;
+    }
+
+    // An object stored in memory.
+    static class StoredObject {
+        final byte[] content;
+        final ObjectMetadata metadata;
+
+        StoredObject(byte[] content, ObjectMetadata metadata) {
+            this.content = content;
+            this.metadata = metadata;
+        }
+    }
+
+    // A multipart upload in progress.
+    private static class MultipartUpload {
+        final String bucketName;
+        final String key;
+        final ObjectMetadata metadata;
+        final ConcurrentMap<Integer, byte[]> partsByNumber = new ConcurrentHashMap<>();
+
+        MultipartUpload(String bucketName, String key, ObjectMetadata metadata) {
+            this.bucketName = bucketName;
+            this.key = key;
+            this.metadata = metadata;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package org.sagebionetworks.bridge.exporter.integration;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.BiConsumer;
+
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.services.sqs.AmazonSQSClient;
+import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
+import com.amazonaws.services.sqs.model.ReceiveMessageResult;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequest;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.SendMessageBatchResult;
+import com.amazonaws.services.sqs.model.SendMessageBatchResultEntry;
+import com.amazonaws.services.sqs.model.SendMessageRequest;
+import com.amazonaws.services.sqs.model.SendMessageResult;
+import com.amazonaws.util.Md5Utils;
+
+/**
+ * In-memory stand-in for SQS. This extends AmazonSQSClient (rather than implementing AmazonSQS) so it can be passed
+ * to SqsHelper, but it never talks to the network. Messages are kept in memory per queue URL, and listeners are
+ * notified of each message as it is sent, which is how the local worker stand-in picks up requests.
+ */
+@SuppressWarnings("deprecation")
+public class InMemoryAmazonSQS extends AmazonSQSClient {
+    private final ConcurrentMap<String, BlockingQueue<Message>> messagesByQueueUrl = new ConcurrentHashMap<>();
+    private final List<BiConsumer<String, String>> listenerList = new CopyOnWriteArrayList<>();
+
+    public InMemoryAmazonSQS() {
+        super(new AWSStaticCredentialsProvider(new BasicAWSCredentials("local", "local")));
+    }
+
+    /** Adds a listener, which is called with the queue URL and message body of each message sent. */
+    public void addListener(BiConsumer<String, String> listener) {
+        listenerList.add(listener);
+    }
+
+    @Override
+    public SendMessageResult sendMessage(SendMessageRequest request) {
+        String messageId = enqueue(request.getQueueUrl(), request.getMessageBody());
+        return new SendMessageResult().withMessageId(messageId)
+                .withMD5OfMessageBody(Md5Utils.md5AsBase64(request.getMessageBody().getBytes()));
+    }
+
+    @Override
+    public SendMessageBatchResult sendMessageBatch(SendMessageBatchRequest request) {
+        List<SendMessageBatchResultEntry> resultEntryList = new ArrayList<>();
+        for (SendMessageBatchRequestEntry oneEntry : request.getEntries()) {
+            String messageId = enqueue(request.getQueueUrl(), oneEntry.getMessageBody());
+            resultEntryList.add(new SendMessageBatchResultEntry().withId(oneEntry.getId()).withMessageId(messageId));
+        }
+        return new SendMessageBatchResult().withSuccessful(resultEntryList);
+    }
+
+    @Override
+    public ReceiveMessageResult receiveMessage(ReceiveMessageRequest request) {
+        int maxMessages = request.getMaxNumberOfMessages() != null ? request.getMaxNumberOfMessages() : 1;
+        List<Message> messageList = new ArrayList<>();
+        getQueue(request.getQueueUrl()).drainTo(messageList, maxMessages);
+        return new ReceiveMessageResult().withMessages(messageList);
+    }
+
+    /** Number of messages sent to the given queue that haven't been received yet. */
+    public int getQueueSize(String queueUrl) {
+        return getQueue(queueUrl).size();
+    }
+
+    private String enqueue(String queueUrl, String body) {
+        String messageId = UUID.randomUUID().toString();
+        getQueue(queueUrl).add(new Message().withMessageId(messageId).withBody(body));
+        for (BiConsumer<String, String> oneListener : listenerList) {
+            oneListener.accept(queueUrl, body);
+        }
+        return messageId;
+    }
+
+    private BlockingQueue<Message> getQueue(String queueUrl) {
+        return messagesByQueueUrl.computeIfAbsent(queueUrl, k -> new LinkedBlockingQueue<>());
+    }
+}
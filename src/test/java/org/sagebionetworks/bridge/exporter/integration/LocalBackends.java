@@ -0,0 +1,109 @@
+package org.sagebionetworks.bridge.exporter.integration;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.sagebionetworks.bridge.config.Config;
+import org.sagebionetworks.bridge.json.DefaultObjectMapper;
+
+/**
+ * Local, in-process backends for SQS, DynamoDB, and S3, selected with backend.mode=local in the config. This lets us
+ * exercise and benchmark the suite's orchestration and polling logic without a network.
+ *
+ * Since there's no real worker, the local backend includes a worker stand-in: every request sent to the worker queue
+ * writes a new finish time to the local WorkerLog table after local.worker.latency.millis, so that anything waiting
+ * on the worker log sees the worker finish.
+ */
+public class LocalBackends {
+    private static final Logger LOG = LoggerFactory.getLogger(LocalBackends.class);
+
+    public static final String BACKEND_MODE_LOCAL = "local";
+    public static final String CONFIG_KEY_BACKEND_MODE = "backend.mode";
+    private static final String CONFIG_KEY_LOCAL_WORKER_LATENCY_MILLIS = "local.worker.latency.millis";
+
+    private static InMemoryAmazonDynamoDB ddbClient;
+    private static InMemoryAmazonS3 s3Client;
+    private static InMemoryAmazonSQS sqsClient;
+    private static ScheduledExecutorService workerScheduler;
+
+    /** True if the config selects the local backends. */
+    public static boolean isEnabled(Config config) {
+        return BACKEND_MODE_LOCAL.equals(config.get(CONFIG_KEY_BACKEND_MODE));
+    }
+
+    /** In-memory DynamoDB, with all the tables the suite uses. */
+    public static synchronized InMemoryAmazonDynamoDB getDdbClient() throws IOException {
+        if (ddbClient == null) {
+            Config config = TestUtils.loadConfig();
+            ddbClient = new InMemoryAmazonDynamoDB();
+            ddbClient.createTable(TestUtils.getDdbTableName(config, "FitBitTables"), "studyId", "tableId");
+            ddbClient.createTable(TestUtils.getDdbTableName(config, "HealthDataRecord3"), "id", null);
+            ddbClient.createTable(TestUtils.getDdbTableName(config, "NotificationConfig"), "studyId", null);
+            ddbClient.createTable(TestUtils.getDdbTableName(config, "NotificationLog"), "userId",
+                    "notificationTime");
+            ddbClient.createTable(TestUtils.getDdbTableName(config, "WorkerLog"), "workerId", "finishTime");
+        }
+        return ddbClient;
+    }
+
+    /** In-memory S3. */
+    public static synchronized InMemoryAmazonS3 getS3Client() {
+        if (s3Client == null) {
+            s3Client = new InMemoryAmazonS3();
+        }
+        return s3Client;
+    }
+
+    /** In-memory SQS, with the worker stand-in listening on the worker request queue. */
+    public static synchronized InMemoryAmazonSQS getSqsClient() throws IOException {
+        if (sqsClient == null) {
+            Config config = TestUtils.loadConfig();
+            String workerSqsUrl = config.get("worker.request.sqs.queue.url");
+            String latencyMillisStr = config.get(CONFIG_KEY_LOCAL_WORKER_LATENCY_MILLIS);
+            long latencyMillis = latencyMillisStr != null ? Long.parseLong(latencyMillisStr) : 0;
+            String workerLogTableName = TestUtils.getDdbTableName(config, "WorkerLog");
+            InMemoryAmazonDynamoDB workerLogClient = getDdbClient();
+
+            workerScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "local-worker");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+            sqsClient = new InMemoryAmazonSQS();
+            sqsClient.addListener((queueUrl, body) -> {
+                if (queueUrl.equals(workerSqsUrl)) {
+                    workerScheduler.schedule(() -> finishWorker(workerLogClient, workerLogTableName, body),
+                            latencyMillis, TimeUnit.MILLISECONDS);
+                }
+            });
+        }
+        return sqsClient;
+    }
+
+    // Writes a finish time to the worker log for the service named in the request.
+    private static void finishWorker(InMemoryAmazonDynamoDB workerLogClient, String workerLogTableName,
+            String requestBody) {
+        try {
+            JsonNode requestNode = DefaultObjectMapper.INSTANCE.readTree(requestBody);
+            String workerId = requestNode.get("service").textValue();
+
+            Map<String, AttributeValue> item = new HashMap<>();
+            item.put("workerId", new AttributeValue().withS(workerId));
+            item.put("finishTime", new AttributeValue().withN(String.valueOf(System.currentTimeMillis())));
+            workerLogClient.putItem(new PutItemRequest().withTableName(workerLogTableName).withItem(item));
+        } catch (Exception ex) {
+            LOG.error("Local worker stand-in could not process request " + requestBody, ex);
+        }
+    }
+}
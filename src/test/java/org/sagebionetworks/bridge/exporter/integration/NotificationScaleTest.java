@@ -0,0 +1,319 @@
+package org.sagebionetworks.bridge.exporter.integration;
+
+import static org.testng.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.services.dynamodbv2.document.DynamoDB;
+import com.amazonaws.services.dynamodbv2.document.Item;
+import com.amazonaws.services.dynamodbv2.document.ScanFilter;
+import com.amazonaws.services.dynamodbv2.document.Table;
+import com.amazonaws.services.dynamodbv2.document.spec.ScanSpec;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.i18n.phonenumbers.NumberParseException;
+import com.google.i18n.phonenumbers.PhoneNumberUtil;
+import org.joda.time.LocalDate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import org.sagebionetworks.bridge.config.Config;
+import org.sagebionetworks.bridge.rest.model.Phone;
+import org.sagebionetworks.bridge.rest.model.Role;
+import org.sagebionetworks.bridge.rest.model.SignUp;
+import org.sagebionetworks.bridge.sqs.SqsHelper;
+import org.sagebionetworks.bridge.user.TestUser;
+import org.sagebionetworks.bridge.user.TestUserHelper;
+import org.sagebionetworks.bridge.util.IntegTestUtils;
+
+/**
+ * Scale test for the Activity Notification Worker. Provisions load.notification.participants synthetic participants
+ * (in parallel), spread evenly across cohorts by data group and activity history, then runs the worker over the whole
+ * app, without a user list. This is NotificationTest.withoutUserList at scale:
+ * - sdk-int-1 and sdk-int-2 participants missed the first 3 days of the burst, so they get an EARLY notification.
+ * - sdk-int-1 participants who did days 0-2 get nothing.
+ * - integ-test-excluded participants are excluded by data group, so they get nothing.
+ *
+ * Activity histories are seeded in bulk with ActivitySeeder.
+ *
+ * Instead of one NotificationLog query per participant, results are read with a parallel scan, split into
+ * load.notification.scan.segments segments, and filtered to notifications sent since the request. (BatchGetItem
+ * doesn't help here, since the range key is the notification time, which we don't know.) Reports worker throughput in
+ * participants per second.
+ *
+ * Only runs with the load profile (mvn test -Pload).
+ */
+@Test(groups = "load")
+public class NotificationScaleTest {
+    private static final Logger LOG = LoggerFactory.getLogger(NotificationScaleTest.class);
+
+    private static final String NOTIFICATION_WORKER_ID = WorkerRequest.SERVICE_ACTIVITY_NOTIFICATION;
+
+    // Allow for clock skew between us and the worker when filtering the notification log.
+    private static final long CLOCK_SKEW_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    // Only 555-0100 through 555-0199 are reserved for fictional use, in every area code. The worker really does send
+    // SMS, so participants use those 100 numbers in the first configured area code, then the same 100 in the next
+    // area code, etc.
+    private static final int FICTIONAL_LINE_START = 5550100;
+    private static final int FICTIONAL_NUMBERS_PER_AREA_CODE = 100;
+
+    private static final List<Cohort> COHORT_LIST = ImmutableList.of(
+            new Cohort(NotificationTest.PREBURST_GROUP_1, new int[0], "EARLY",
+                    NotificationTest.RESOLVED_MESSAGE_EARLY),
+            new Cohort(NotificationTest.PREBURST_GROUP_2, new int[0], "EARLY",
+                    NotificationTest.RESOLVED_MESSAGE_EARLY),
+            new Cohort(NotificationTest.PREBURST_GROUP_1, new int[] { 0, 1, 2 }, null, null),
+            new Cohort(NotificationTest.EXCLUDED_DATA_GROUP, new int[0], null, null));
+
+    private static SqsHelper sqsHelper;
+    private static String workerSqsUrl;
+    private static Table ddbNotificationLogTable;
+    private static Table ddbWorkerLogTable;
+    private static TestUser developer;
+    private static LocalDate today;
+
+    private static int numParticipants;
+    private static int numProvisionThreads;
+    private static List<String> phoneNumberList;
+    private static int numScanSegments;
+    private static long workerTimeoutMillis;
+
+    // Participants by user ID. Concurrent, since participants are provisioned in parallel.
+    private static final Map<String, Participant> participantsByUserId = new ConcurrentHashMap<>();
+    private static final Queue<TestUser> userQueue = new ConcurrentLinkedQueue<>();
+
+    @BeforeClass
+    public static void beforeClass() throws Exception {
+        Config config = TestUtils.loadConfig();
+        numParticipants = Integer.parseInt(config.get("load.notification.participants"));
+        numProvisionThreads = Integer.parseInt(config.get("load.notification.provision.threads"));
+        numScanSegments = Integer.parseInt(config.get("load.notification.scan.segments"));
+        workerTimeoutMillis = Long.parseLong(config.get("load.notification.timeout.millis"));
+        phoneNumberList = makePhoneNumbers(Splitter.on(',').trimResults()
+                .omitEmptyStrings().splitToList(config.get("load.notification.area.codes")));
+
+        AWSCredentialsProvider awsCredentialsProvider = TestUtils.getAwsCredentialsForConfig(config);
+        DynamoDB ddbClient = TestUtils.getDdbClient(awsCredentialsProvider);
+        Table ddbNotificationConfigTable = TestUtils.getDdbTable(config, ddbClient, "NotificationConfig");
+        ddbNotificationLogTable = TestUtils.getDdbTable(config, ddbClient, "NotificationLog");
+        ddbWorkerLogTable = TestUtils.getDdbTable(config, ddbClient, "WorkerLog");
+        workerSqsUrl = config.get("worker.request.sqs.queue.url");
+        sqsHelper = TestUtils.getSqsHelper(awsCredentialsProvider);
+
+        developer = TestUserHelper.createAndSignInUser(NotificationScaleTest.class, false, Role.DEVELOPER);
+        NotificationTest.ensureFixtures(developer, ddbNotificationConfigTable);
+        today = LocalDate.now(NotificationTest.LOCAL_TIME_ZONE);
+    }
+
+    @AfterClass
+    public static void afterClass() throws Exception {
+        // Delete participants in parallel too. Otherwise, cleanup takes as long as provisioning.
+        if (!userQueue.isEmpty()) {
+            ExecutorService executorService = Executors.newFixedThreadPool(numProvisionThreads);
+            try {
+                List<CompletableFuture<Void>> futureList = new ArrayList<>();
+                for (TestUser oneUser : userQueue) {
+                    futureList.add(CompletableFuture.runAsync(() -> {
+                        try {
+                            oneUser.signOutAndDeleteUser();
+                        } catch (Exception ex) {
+                            LOG.error("Error deleting participant " + oneUser.getUserId(), ex);
+                        }
+                    }, executorService));
+                }
+                CompletableFuture.allOf(futureList.toArray(new CompletableFuture[0])).join();
+            } finally {
+                executorService.shutdown();
+            }
+        }
+
+        if (developer != null) {
+            developer.signOutAndDeleteUser();
+        }
+    }
+
+    @Test
+    public void notifyWholeApp() throws Exception {
+        // Provision.
+        long provisionStartMillis = System.currentTimeMillis();
+        ExecutorService executorService = Executors.newFixedThreadPool(numProvisionThreads);
+        try {
+            List<CompletableFuture<Void>> futureList = new ArrayList<>();
+            for (int i = 0; i < numParticipants; i++) {
+                int index = i;
+                futureList.add(CompletableFuture.runAsync(() -> provisionParticipant(index), executorService));
+            }
+            CompletableFuture.allOf(futureList.toArray(new CompletableFuture[0])).join();
+        } finally {
+            executorService.shutdown();
+        }
+        long provisionMillis = System.currentTimeMillis() - provisionStartMillis;
+
+        // Seed activity histories for each cohort.
+        long seedStartMillis = System.currentTimeMillis();
+        List<ActivitySeeder.Cohort> seederCohortList = new ArrayList<>();
+        for (Cohort oneCohort : COHORT_LIST) {
+            seederCohortList.add(ActivitySeeder.cohort(oneCohort.userList, oneCohort.completedDayIndices));
+        }
+        new ActivitySeeder(today, NotificationTest.LOCAL_TIME_ZONE, NotificationTest.TEST_ID)
+                .withNumThreads(numProvisionThreads).withUserInitializer(NotificationTest::setStudyCommitment)
+                .seed(seederCohortList);
+        long seedMillis = System.currentTimeMillis() - seedStartMillis;
+
+        // Run the worker over the whole app, on day 3 of the burst (same as NotificationTest's default test date).
+        long previousFinishTime = TestUtils.getWorkerLastFinishedTime(ddbWorkerLogTable, NOTIFICATION_WORKER_ID);
+        long requestMillis = System.currentTimeMillis();
+        WorkerRequest request = WorkerRequest.activityNotification().withDate(today.plusDays(3))
+                .withAppId(IntegTestUtils.TEST_APP_ID).withTag("Notification Worker Scale Test").build();
+        WorkerTimings.RoundTrip roundTrip = WorkerTimings.sendWorkerRequest(sqsHelper, workerSqsUrl, request);
+        long finishTime = WorkerCompletionWaiter.forWorkerLog(ddbWorkerLogTable)
+                .withDeadlineMillis(workerTimeoutMillis).assertFinishAfter(NOTIFICATION_WORKER_ID, previousFinishTime);
+        roundTrip.markWorkerFinished(finishTime);
+
+        // Finish time comes from the worker's clock, so this is only as accurate as the clock skew. That's fine at
+        // the scale of a run over thousands of participants.
+        long workerMillis = Math.max(finishTime - requestMillis, 1);
+
+        // Verify.
+        long verifyStartMillis = System.currentTimeMillis();
+        Map<String, List<Item>> notificationsByUserId = scanNotificationLog(requestMillis - CLOCK_SKEW_MILLIS);
+        for (Participant oneParticipant : participantsByUserId.values()) {
+            List<Item> notificationList = notificationsByUserId.getOrDefault(oneParticipant.userId,
+                    ImmutableList.of());
+            Cohort cohort = oneParticipant.cohort;
+            String participantDesc = "Participant " + oneParticipant.userId + " in " + cohort.dataGroup;
+            if (cohort.expectedNotificationType == null) {
+                assertEquals(notificationList.size(), 0, participantDesc + " shouldn't be notified");
+            } else {
+                assertEquals(notificationList.size(), 1, participantDesc + " should be notified once");
+                assertEquals(notificationList.get(0).getString("notificationType"),
+                        cohort.expectedNotificationType, participantDesc);
+                assertEquals(notificationList.get(0).getString("message"), cohort.expectedMessage,
+                        participantDesc);
+            }
+        }
+        long verifyMillis = System.currentTimeMillis() - verifyStartMillis;
+        roundTrip.markVerified();
+
+        // The worker also processes any other participants in the app, so this is a lower bound.
+        LOG.info(String.format("Notification scale test: participants=%d, provision=%dms, seed=%dms, worker=%dms, " +
+                        "throughput=%.1f participants/s, verify=%dms (%d scan segments)", numParticipants,
+                provisionMillis, seedMillis, workerMillis, numParticipants * 1000.0 / workerMillis, verifyMillis,
+                numScanSegments));
+    }
+
+    // Participants fill 555-0100 through 555-0199 in one area code before moving on to the next. Every number is
+    // checked up front, so a bad area code (eg, an N11 service code, or one that isn't assigned) fails the test before
+    // we provision anyone, instead of failing sign-up partway through.
+    private static List<String> makePhoneNumbers(List<String> areaCodeList) {
+        if (numParticipants > areaCodeList.size() * FICTIONAL_NUMBERS_PER_AREA_CODE) {
+            throw new IllegalStateException("load.notification.area.codes has " + areaCodeList.size() +
+                    " area codes, which is only enough for " + areaCodeList.size() * FICTIONAL_NUMBERS_PER_AREA_CODE +
+                    " participants, not " + numParticipants);
+        }
+
+        PhoneNumberUtil phoneNumberUtil = PhoneNumberUtil.getInstance();
+        List<String> numberList = new ArrayList<>();
+        for (int i = 0; i < numParticipants; i++) {
+            String areaCode = areaCodeList.get(i / FICTIONAL_NUMBERS_PER_AREA_CODE);
+            String number = "+1" + areaCode + (FICTIONAL_LINE_START + i % FICTIONAL_NUMBERS_PER_AREA_CODE);
+            boolean isValid;
+            try {
+                isValid = phoneNumberUtil.isValidNumber(phoneNumberUtil.parse(number, "US"));
+            } catch (NumberParseException ex) {
+                isValid = false;
+            }
+            if (!isValid) {
+                throw new IllegalStateException("Participant " + i + " would get " + number + ", which isn't a " +
+                        "valid US number. Check load.notification.area.codes.");
+            }
+            numberList.add(number);
+        }
+        return numberList;
+    }
+
+    // Creates a consented participant with the cohort's data group. Activities are seeded separately.
+    private static void provisionParticipant(int index) {
+        Cohort cohort = COHORT_LIST.get(index % COHORT_LIST.size());
+        Phone phone = new Phone().regionCode("US").number(phoneNumberList.get(index));
+        SignUp signUp = new SignUp().appId(IntegTestUtils.TEST_APP_ID).phone(phone).password("password1");
+        signUp.addDataGroupsItem(cohort.dataGroup);
+
+        try {
+            TestUser user = TestUserHelper.createAndSignInUser(NotificationScaleTest.class, true, signUp);
+            userQueue.add(user);
+            cohort.userList.add(user);
+            participantsByUserId.put(user.getUserId(), new Participant(user.getUserId(), cohort));
+        } catch (Exception ex) {
+            throw new IllegalStateException("Error provisioning participant " + index, ex);
+        }
+    }
+
+    // Scans the notification log in parallel segments, and returns notifications for our participants, by user ID.
+    private static Map<String, List<Item>> scanNotificationLog(long sinceMillis) {
+        Map<String, List<Item>> notificationsByUserId = new ConcurrentHashMap<>();
+        ExecutorService executorService = Executors.newFixedThreadPool(numScanSegments);
+        try {
+            List<CompletableFuture<Void>> futureList = new ArrayList<>();
+            for (int i = 0; i < numScanSegments; i++) {
+                ScanSpec scanSpec = new ScanSpec().withSegment(i).withTotalSegments(numScanSegments)
+                        .withScanFilters(new ScanFilter("notificationTime").ge(sinceMillis));
+                futureList.add(CompletableFuture.runAsync(() -> {
+                    for (Item oneItem : ddbNotificationLogTable.scan(scanSpec)) {
+                        String userId = oneItem.getString("userId");
+                        if (participantsByUserId.containsKey(userId)) {
+                            // Each user ID is in exactly one segment, so the per-user list isn't shared.
+                            notificationsByUserId.computeIfAbsent(userId, key -> new ArrayList<>()).add(oneItem);
+                        }
+                    }
+                }, executorService));
+            }
+            CompletableFuture.allOf(futureList.toArray(new CompletableFuture[0])).join();
+        } finally {
+            executorService.shutdown();
+        }
+        return notificationsByUserId;
+    }
+
+    // A group of participants with the same data group and activity history, and the notification we expect them to
+    // get (if any).
+    private static class Cohort {
+        final String dataGroup;
+        final int[] completedDayIndices;
+        final String expectedNotificationType;
+        final String expectedMessage;
+        final List<TestUser> userList = Collections.synchronizedList(new ArrayList<>());
+
+        Cohort(String dataGroup, int[] completedDayIndices, String expectedNotificationType, String expectedMessage) {
+            this.dataGroup = dataGroup;
+            this.completedDayIndices = completedDayIndices;
+            this.expectedNotificationType = expectedNotificationType;
+            this.expectedMessage = expectedMessage;
+        }
+    }
+
+    private static class Participant {
+        final String userId;
+        final Cohort cohort;
+
+        Participant(String userId, Cohort cohort) {
+            this.userId = userId;
+            this.cohort = cohort;
+        }
+    }
+}
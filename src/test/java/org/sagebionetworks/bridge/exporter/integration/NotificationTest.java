@@ -2,22 +2,16 @@ package org.sagebionetworks.bridge.exporter.integration;
 
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertFalse;
-import static org.testng.Assert.assertTrue;
 
-import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
 
 import com.amazonaws.auth.AWSCredentialsProvider;
 import com.amazonaws.services.dynamodbv2.document.DynamoDB;
 import com.amazonaws.services.dynamodbv2.document.Item;
 import com.amazonaws.services.dynamodbv2.document.Table;
-import com.fasterxml.jackson.databind.node.ArrayNode;
-import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import org.joda.time.DateTime;
@@ -30,10 +24,8 @@ import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
 import org.sagebionetworks.bridge.config.Config;
-import org.sagebionetworks.bridge.json.DefaultObjectMapper;
 import org.sagebionetworks.bridge.rest.api.ActivitiesApi;
 import org.sagebionetworks.bridge.rest.api.AppsApi;
-import org.sagebionetworks.bridge.rest.api.ForDevelopersApi;
 import org.sagebionetworks.bridge.rest.api.ParticipantReportsApi;
 import org.sagebionetworks.bridge.rest.api.ParticipantsApi;
 import org.sagebionetworks.bridge.rest.model.Activity;
@@ -46,7 +38,6 @@ import org.sagebionetworks.bridge.rest.model.Schedule;
 import org.sagebionetworks.bridge.rest.model.SchedulePlan;
 import org.sagebionetworks.bridge.rest.model.ScheduleStrategy;
 import org.sagebionetworks.bridge.rest.model.ScheduleType;
-import org.sagebionetworks.bridge.rest.model.ScheduledActivity;
 import org.sagebionetworks.bridge.rest.model.SignUp;
 import org.sagebionetworks.bridge.rest.model.SimpleScheduleStrategy;
 import org.sagebionetworks.bridge.rest.model.TaskReference;
@@ -55,20 +46,24 @@ import org.sagebionetworks.bridge.user.TestUser;
 import org.sagebionetworks.bridge.user.TestUserHelper;
 import org.sagebionetworks.bridge.util.IntegTestUtils;
 
+// Deliberately serial. Tests in this class share the test phone number (only this class uses it) and wait on the
+// ActivityNotificationWorker finish time, so they can't run concurrently with each other.
 @SuppressWarnings("ConstantConditions")
+@Test(singleThreaded = true)
 public class NotificationTest {
     private static final String APP_URL = "http://example.com/app-url";
-    private static final String EXCLUDED_DATA_GROUP = "integ-test-excluded";
+    static final String EXCLUDED_DATA_GROUP = "integ-test-excluded";
+    private static final String NOTIFICATION_WORKER_ID = WorkerRequest.SERVICE_ACTIVITY_NOTIFICATION;
     private static final LocalDate GLOBAL_DATE = LocalDate.parse("2000-12-31");
-    private static final String PREBURST_GROUP_1 = "sdk-int-1";
-    private static final String PREBURST_GROUP_2 = "sdk-int-2";
+    static final String PREBURST_GROUP_1 = "sdk-int-1";
+    static final String PREBURST_GROUP_2 = "sdk-int-2";
     private static final String REPORT_ID_ENGAGEMENT = "Engagement";
     private static final String STUDY_COMMITMENT_SURVEY_QUESTION = "benefits";
     private static final String STUDY_COMMITMENT_DUMMY_ANSWER = "This is my study commitment";
 
     // This is an arbitrary timezone for the purposes of our tests. To avoid Daylight Savings Time bugs, make this a
     // fixed offset.
-    private static final DateTimeZone LOCAL_TIME_ZONE = DateTimeZone.forOffsetHours(-8);
+    static final DateTimeZone LOCAL_TIME_ZONE = DateTimeZone.forOffsetHours(-8);
 
     // From receivefreesms.com.
     private static final Phone SECOND_USER_PHONE_NUMBER = new Phone().regionCode("US").number("+14243346702");
@@ -84,7 +79,7 @@ public class NotificationTest {
     // Resolved SMS Messages.
     private static final String RESOLVED_MESSAGE_CUMULATIVE = "Test notification (cumulative activities) " +
             STUDY_COMMITMENT_DUMMY_ANSWER + " " + APP_URL;
-    private static final String RESOLVED_MESSAGE_EARLY = "Test notification (early) " +
+    static final String RESOLVED_MESSAGE_EARLY = "Test notification (early) " +
             STUDY_COMMITMENT_DUMMY_ANSWER + " " + APP_URL;
     private static final String RESOLVED_MESSAGE_LATE = "Test notification (late in burst) " +
             STUDY_COMMITMENT_DUMMY_ANSWER + " " + APP_URL;
@@ -95,8 +90,9 @@ public class NotificationTest {
     private static final String RESOLVED_MESSAGE_PRE_BURST_DEFAULT = "Test default pre-burst notification " + APP_URL;
 
     // Use this unique ID for event IDs, schedule labels, task IDs, etc.
-    private static final String TEST_ID = "notification-integ-test";
+    static final String TEST_ID = "notification-integ-test";
 
+    private static ActivitySeeder activitySeeder;
     private static LocalDate defaultTestDate;
     private static LocalDate today;
     private static SqsHelper sqsHelper;
@@ -116,53 +112,6 @@ public class NotificationTest {
         developer = TestUserHelper.createAndSignInUser(NotificationTest.class, false, Role.DEVELOPER);
         researcher = TestUserHelper.createAndSignInUser(NotificationTest.class, false, Role.RESEARCHER);
 
-        // Ensure app has all the pre-reqs for our test.
-        App app = developer.getClient(AppsApi.class).getUsersApp().execute().body();
-        boolean shouldUpdateApp = false;
-
-        if (!app.getAutomaticCustomEvents().containsKey(TEST_ID)) {
-            app.putAutomaticCustomEventsItem(TEST_ID, "enrollment:P2W");
-            shouldUpdateApp = true;
-        }
-
-        if (!app.getDataGroups().contains(EXCLUDED_DATA_GROUP)) {
-            app.addDataGroupsItem(EXCLUDED_DATA_GROUP);
-            shouldUpdateApp = true;
-        }
-        if (!app.getDataGroups().contains(PREBURST_GROUP_1)) {
-            app.addDataGroupsItem(PREBURST_GROUP_1);
-            shouldUpdateApp = true;
-        }
-        if (!app.getDataGroups().contains(PREBURST_GROUP_2)) {
-            app.addDataGroupsItem(PREBURST_GROUP_2);
-            shouldUpdateApp = true;
-        }
-
-        if (!app.getTaskIdentifiers().contains(TEST_ID)) {
-            app.addTaskIdentifiersItem(TEST_ID);
-            shouldUpdateApp = true;
-        }
-
-        if (shouldUpdateApp) {
-            developer.getClient(AppsApi.class).updateUsersApp(app).execute();
-        }
-
-        // Make sure we have a schedule for our integ test.
-        List<SchedulePlan> schedulePlanList = developer.getClient(ForDevelopersApi.class).getSchedulePlans(false).execute()
-                .body().getItems();
-        Optional<SchedulePlan> optionalSchedulePlan = schedulePlanList.stream()
-                .filter(s -> TEST_ID.equals(s.getLabel())).findAny();
-        if (!optionalSchedulePlan.isPresent()) {
-            TaskReference task = new TaskReference().identifier(TEST_ID);
-            Activity activity = new Activity().label(TEST_ID).task(task);
-            Schedule schedule = new Schedule().label(TEST_ID).scheduleType(ScheduleType.RECURRING)
-                    .eventId("enrollment,custom:" + TEST_ID).expires("P1D").interval("P1D").sequencePeriod("P9D")
-                    .addTimesItem("00:00").addActivitiesItem(activity);
-            ScheduleStrategy strategy = new SimpleScheduleStrategy().schedule(schedule).type("SimpleScheduleStrategy");
-            SchedulePlan newPlan = new SchedulePlan().label(TEST_ID).strategy(strategy);
-            developer.getClient(ForDevelopersApi.class).createSchedulePlan(newPlan).execute();
-        }
-
         // AWS
         Config bridgeConfig = TestUtils.loadConfig();
         AWSCredentialsProvider awsCredentialsProvider = TestUtils.getAwsCredentialsForConfig(bridgeConfig);
@@ -174,6 +123,72 @@ public class NotificationTest {
         ddbNotificationLogTable = TestUtils.getDdbTable(bridgeConfig, ddbClient, "NotificationLog");
         ddbWorkerLogTable = TestUtils.getDdbTable(bridgeConfig, ddbClient, "WorkerLog");
 
+        // App, schedule, and notification config.
+        ensureFixtures(developer, ddbNotificationConfigTable);
+
+        // SQS
+        workerSqsUrl = bridgeConfig.get("worker.request.sqs.queue.url");
+        sqsHelper = TestUtils.getSqsHelper(awsCredentialsProvider);
+
+        // Make snapshots of certain event times, so we don't have random clock skew errors.
+        today = LocalDate.now(LOCAL_TIME_ZONE);
+        activitySeeder = new ActivitySeeder(today, LOCAL_TIME_ZONE, TEST_ID);
+
+        // The default test date is 3 days after enrollment. This is within the first study burst after the blackout.
+        defaultTestDate = today.plusDays(3);
+    }
+
+    // Ensures the app has the data groups, task ID, and custom event our tests use, that there's a schedule plan for
+    // the test, and that the Notification Worker is configured for the app. Each of these is only written if it's
+    // missing or has changed. Package-scoped so the notification scale test can share the same setup.
+    static void ensureFixtures(TestUser developer, Table ddbNotificationConfigTable) throws Exception {
+        // Ensure app has all the pre-reqs for our test. The check reads the app, so only do it once per suite.
+        Map<String, Object> appFixtures = ImmutableMap.of(
+                "automaticCustomEvents", ImmutableMap.of(TEST_ID, "enrollment:P2W"),
+                "dataGroups", ImmutableList.of(EXCLUDED_DATA_GROUP, PREBURST_GROUP_1, PREBURST_GROUP_2),
+                "taskIdentifier", TEST_ID);
+        FixtureReconciler.runIfChanged("App:" + IntegTestUtils.TEST_APP_ID + ":notification", appFixtures, () -> {
+            App app = developer.getClient(AppsApi.class).getUsersApp().execute().body();
+            boolean shouldUpdateApp = false;
+
+            if (!app.getAutomaticCustomEvents().containsKey(TEST_ID)) {
+                app.putAutomaticCustomEventsItem(TEST_ID, "enrollment:P2W");
+                shouldUpdateApp = true;
+            }
+
+            if (!app.getDataGroups().contains(EXCLUDED_DATA_GROUP)) {
+                app.addDataGroupsItem(EXCLUDED_DATA_GROUP);
+                shouldUpdateApp = true;
+            }
+            if (!app.getDataGroups().contains(PREBURST_GROUP_1)) {
+                app.addDataGroupsItem(PREBURST_GROUP_1);
+                shouldUpdateApp = true;
+            }
+            if (!app.getDataGroups().contains(PREBURST_GROUP_2)) {
+                app.addDataGroupsItem(PREBURST_GROUP_2);
+                shouldUpdateApp = true;
+            }
+
+            if (!app.getTaskIdentifiers().contains(TEST_ID)) {
+                app.addTaskIdentifiersItem(TEST_ID);
+                shouldUpdateApp = true;
+            }
+
+            if (shouldUpdateApp) {
+                developer.getClient(AppsApi.class).updateUsersApp(app).execute();
+            }
+        });
+
+        // Make sure we have a schedule for our integ test. This depends on the task ID and custom event above.
+        TaskReference task = new TaskReference().identifier(TEST_ID);
+        Activity activity = new Activity().label(TEST_ID).task(task);
+        Schedule schedule = new Schedule().label(TEST_ID).scheduleType(ScheduleType.RECURRING)
+                .eventId("enrollment,custom:" + TEST_ID).expires("P1D").interval("P1D").sequencePeriod("P9D")
+                .addTimesItem("00:00").addActivitiesItem(activity);
+        ScheduleStrategy strategy = new SimpleScheduleStrategy().schedule(schedule).type("SimpleScheduleStrategy");
+        SchedulePlan newPlan = new SchedulePlan().label(TEST_ID).strategy(strategy);
+        SuiteFixtures.get().ensureSchedulePlan(developer, newPlan);
+
         // Ensure notification config
         List<String> missedCumulativeMessageList = ImmutableList.of(MESSAGE_CUMULATIVE);
         List<String> missedEarlyMessageList = ImmutableList.of(MESSAGE_EARLY);
@@ -200,17 +215,7 @@ public class NotificationTest {
                 .withInt("numMissedDaysToNotify", 3)
                 .withMap("preburstMessagesByDataGroup", preburstMessageMap)
                 .withStringSet("requiredSubpopulationGuidSet", IntegTestUtils.TEST_APP_ID);
-        ddbNotificationConfigTable.putItem(configItem);
-
-        // SQS
-        workerSqsUrl = bridgeConfig.get("worker.request.sqs.queue.url");
-        sqsHelper = TestUtils.getSqsHelper(awsCredentialsProvider);
-
-        // Make snapshots of certain event times, so we don't have random clock skew errors.
-        today = LocalDate.now(LOCAL_TIME_ZONE);
-
-        // The default test date is 3 days after enrollment. This is within the first study burst after the blackout.
-        defaultTestDate = today.plusDays(3);
+        FixtureReconciler.putIfChanged(ddbNotificationConfigTable, configItem, "studyId");
     }
 
     @AfterClass
@@ -225,7 +230,7 @@ public class NotificationTest {
 
     @BeforeMethod
     public void before() throws Exception {
-        // Ensure no user with the test phone number
+        // Ensure no user with the test phone number.
         IntegTestUtils.deletePhoneUser();
     }
 
@@ -346,11 +351,12 @@ public class NotificationTest {
     private static void testNoNotification(String testName, LocalDate date, TestUser user)
             throws Exception {
         // Execute
-        executeNotificationWorker(testName, date, user.getUserId());
+        WorkerTimings.RoundTrip roundTrip = executeNotificationWorker(testName, date, user.getUserId());
 
         // Verify no entries in the notification log.
         Iterator<Item> itemIter = ddbNotificationLogTable.query("userId", user.getUserId()).iterator();
         assertFalse(itemIter.hasNext());
+        roundTrip.markVerified();
     }
 
     @Test
@@ -528,7 +534,7 @@ public class NotificationTest {
         try {
             initUser(secondUser);
 
-            executeNotificationWorker("withoutUserList", null, null);
+            WorkerTimings.RoundTrip roundTrip = executeNotificationWorker("withoutUserList", null, null);
 
             // Both users have a notification.
             Iterable<Item> userItemIter = ddbNotificationLogTable.query("userId", user.getUserId());
@@ -543,6 +549,7 @@ public class NotificationTest {
             assertEquals(secondUserItemList.size(), 1);
             assertEquals(secondUserItemList.get(0).getString("notificationType"), "EARLY");
             assertEquals(secondUserItemList.get(0).getString("message"), RESOLVED_MESSAGE_EARLY);
+            roundTrip.markVerified();
         } finally {
             secondUser.signOutAndDeleteUser();
         }
@@ -551,42 +558,37 @@ public class NotificationTest {
     private static List<Item> getNotificationsForUser(String testName, LocalDate date, TestUser user)
             throws Exception {
         // Execute
-        executeNotificationWorker(testName, date, user.getUserId());
+        WorkerTimings.RoundTrip roundTrip = executeNotificationWorker(testName, date, user.getUserId());
 
         // Get notification log for user.
         Iterable<Item> itemIter = ddbNotificationLogTable.query("userId", user.getUserId());
-        return ImmutableList.copyOf(itemIter);
+        List<Item> itemList = ImmutableList.copyOf(itemIter);
+        roundTrip.markVerified();
+        return itemList;
     }
 
-    private static void executeNotificationWorker(String testName, LocalDate date, String userId) throws Exception {
+    private static WorkerTimings.RoundTrip executeNotificationWorker(String testName, LocalDate date, String userId)
+            throws Exception {
         System.out.println(DateTime.now(LOCAL_TIME_ZONE).toString() + " Executing Notification Worker for test " +
                 testName);
 
-        long previousFinishTime = TestUtils.getWorkerLastFinishedTime(ddbWorkerLogTable,
-                "ActivityNotificationWorker");
+        long previousFinishTime = TestUtils.getWorkerLastFinishedTime(ddbWorkerLogTable, NOTIFICATION_WORKER_ID);
 
         // Create request
         if (date == null) {
             date = defaultTestDate;
         }
-        String requestText = "{\n" +
-                "   \"service\":\"ActivityNotificationWorker\",\n" +
-                "   \"body\":{\n" +
-                "       \"date\":\"" + date.toString() + "\",\n" +
-                "       \"appId\":\"" + IntegTestUtils.TEST_APP_ID + "\",\n" +
-                "       \"tag\":\"Notification Worker Integ Test " + testName + "\"\n" +
-                "   }\n" +
-                "}";
-        ObjectNode requestNode = (ObjectNode) DefaultObjectMapper.INSTANCE.readTree(requestText);
+        WorkerRequest.ActivityNotificationBuilder requestBuilder = WorkerRequest.activityNotification().withDate(date)
+                .withAppId(IntegTestUtils.TEST_APP_ID).withTag("Notification Worker Integ Test " + testName);
         if (userId != null) {
-            ArrayNode userListNode = DefaultObjectMapper.INSTANCE.createArrayNode();
-            userListNode.add(userId);
-            ((ObjectNode) requestNode.get("body")).set("userList", userListNode);
+            requestBuilder.withUserIds(userId);
         }
-        sqsHelper.sendMessageAsJson(workerSqsUrl, requestNode, 0);
+        WorkerTimings.RoundTrip roundTrip = WorkerTimings.sendWorkerRequest(sqsHelper, workerSqsUrl,
+                requestBuilder.build());
 
         // Wait until the worker is finished.
-        TestUtils.pollWorkerLog(ddbWorkerLogTable, "ActivityNotificationWorker", previousFinishTime);
+        TestUtils.pollWorkerLog(ddbWorkerLogTable, NOTIFICATION_WORKER_ID, previousFinishTime, roundTrip);
+        return roundTrip;
     }
 
     private static TestUser createAndInitUser() throws Exception {
@@ -607,16 +609,14 @@ public class NotificationTest {
     }
 
     private static void initUser(TestUser user) throws Exception {
-        // To initialize user, get activities for the next 28 days.
-        DateTime startOfToday = today.toDateTimeAtStartOfDay(LOCAL_TIME_ZONE);
-        user.getClient(ActivitiesApi.class).getScheduledActivitiesByDateRange(startOfToday, startOfToday.plusDays(31))
-                .execute().body().getItems();
+        // To initialize user, get activities for the next 31 days.
+        activitySeeder.seedUser(user);
 
         // Write the engagment report for the user.
         setStudyCommitment(user);
     }
 
-    private static void setStudyCommitment(TestUser user) throws Exception {
+    static void setStudyCommitment(TestUser user) throws Exception {
         Map<String, String> reportData = new HashMap<>();
         reportData.put(STUDY_COMMITMENT_SURVEY_QUESTION, STUDY_COMMITMENT_DUMMY_ANSWER);
         ReportData report = new ReportData().localDate(GLOBAL_DATE).data(reportData);
@@ -624,42 +624,8 @@ public class NotificationTest {
                 .execute();
     }
 
-    private static void completeActivitiesForDateIndices(TestUser user, int... indices)
-            throws Exception {
-        // Calculate get activities date range. Indices are the indices of the dates we care about (as an offset from
-        // today). Min date at midnight and max date at 23:59:59.999 to make sure we catch all activities.
-        int minIdx = Arrays.stream(indices).min().getAsInt();
-        int maxIdx = Arrays.stream(indices).max().getAsInt();
-        DateTime todayAtMidnight = today.toDateTimeAtStartOfDay(LOCAL_TIME_ZONE);
-        DateTime startTime = todayAtMidnight.plusDays(minIdx).withTimeAtStartOfDay();
-        DateTime endTime = todayAtMidnight.plusDays(maxIdx).withHourOfDay(23).withMinuteOfHour(59)
-                .withSecondOfMinute(59).withMillisOfSecond(999);
-
-        List<ScheduledActivity> activityList = user.getClient(ActivitiesApi.class).getScheduledActivitiesByDateRange(
-                startTime, endTime).execute().body().getItems();
-
-        // Map activities by scheduled date, to make it easier to process. Also, filter out activities with the wrong
-        // task ID.
-        Map<LocalDate, ScheduledActivity> activitiesByDate = new HashMap<>();
-        for (ScheduledActivity oneActivity : activityList) {
-            if (TEST_ID.equals(oneActivity.getActivity().getLabel())) {
-                LocalDate scheduledDate = oneActivity.getScheduledOn().withZone(LOCAL_TIME_ZONE).toLocalDate();
-                activitiesByDate.put(scheduledDate, oneActivity);
-            }
-        }
-        assertTrue(activitiesByDate.size() >= (maxIdx - minIdx + 1));
-
-        // Mark activities as finished.
-        List<ScheduledActivity> activitiesToUpdate = new ArrayList<>();
-        for (int i : indices) {
-            LocalDate scheduledDate = today.plusDays(i);
-            ScheduledActivity oneActivity = activitiesByDate.get(scheduledDate);
-
-            // Activities have to be marked as both started and finished to be classified as finished.
-            oneActivity.setStartedOn(oneActivity.getScheduledOn().plusHours(1));
-            oneActivity.setFinishedOn(oneActivity.getScheduledOn().plusHours(2));
-            activitiesToUpdate.add(oneActivity);
-        }
-        user.getClient(ActivitiesApi.class).updateScheduledActivities(activitiesToUpdate).execute();
+    private static void completeActivitiesForDateIndices(TestUser user, int... indices) throws Exception {
+        // Indices are the indices of the dates we care about (as an offset from today).
+        activitySeeder.seedUser(user, indices);
     }
 }
@@ -0,0 +1,266 @@
+package org.sagebionetworks.bridge.exporter.integration;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes a redrive manifest (one ID per line) to S3 from an iterator or stream, in constant memory. Output goes into a
+ * buffer that starts small and doubles as needed, up to the part size. Each full buffer is uploaded as a part of an S3
+ * multipart upload, so memory usage never grows past one part, however big the manifest is. Small manifests only
+ * allocate what they need, and are written with a plain put instead.
+ *
+ * Optionally, the manifest is gzipped (with Content-Encoding: gzip). Only use this if the reader of the manifest
+ * supports gzip.
+ */
+public class RedriveManifestWriter {
+    private static final Logger LOG = LoggerFactory.getLogger(RedriveManifestWriter.class);
+
+    /** S3's minimum part size (except for the last part). */
+    public static final int MIN_PART_SIZE = 5 * 1024 * 1024;
+
+    // Small buffers in front of the encoder and gzip, so we don't call into them once per line.
+    private static final int WRITER_BUFFER_SIZE = 8 * 1024;
+
+    // Starting size of the part buffer.
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+    private final AmazonS3 s3Client;
+    private int partSize = MIN_PART_SIZE;
+    private boolean gzip = false;
+
+    public RedriveManifestWriter(AmazonS3 s3Client) {
+        this.s3Client = s3Client;
+    }
+
+    /** Size of each uploaded part, and of the buffer. Must be at least MIN_PART_SIZE. Defaults to MIN_PART_SIZE. */
+    public RedriveManifestWriter withPartSize(int partSize) {
+        if (partSize < MIN_PART_SIZE) {
+            throw new IllegalArgumentException("partSize must be at least " + MIN_PART_SIZE);
+        }
+        this.partSize = partSize;
+        return this;
+    }
+
+    /** True to gzip the manifest. Defaults to false. */
+    public RedriveManifestWriter withGzip(boolean gzip) {
+        this.gzip = gzip;
+        return this;
+    }
+
+    /** Writes the IDs to the given bucket and key, one per line. Returns the number of IDs written. */
+    public long write(String bucket, String key, Stream<String> idStream) {
+        return write(bucket, key, idStream.iterator());
+    }
+
+    /** Writes the IDs to the given bucket and key, one per line. Returns the number of IDs written. */
+    public long write(String bucket, String key, Iterator<String> idIterator) {
+        PartOutputStream partStream = new PartOutputStream(bucket, key);
+        long numIds = 0;
+        try {
+            OutputStream contentStream = gzip ? new GZIPOutputStream(partStream, WRITER_BUFFER_SIZE) : partStream;
+            Writer writer = new BufferedWriter(new OutputStreamWriter(contentStream, StandardCharsets.UTF_8),
+                    WRITER_BUFFER_SIZE);
+            while (idIterator.hasNext()) {
+                writer.write(idIterator.next());
+                writer.write('\n');
+                numIds++;
+            }
+
+            // Closing the writer flushes everything into the part stream and closes it, which finishes the upload.
+            // This is deliberately not in a finally block. On error, we abort instead, so a partial manifest is never
+            // written.
+            writer.close();
+        } catch (IOException | RuntimeException ex) {
+            partStream.abort();
+            if (ex instanceof IOException) {
+                throw new UncheckedIOException((IOException) ex);
+            }
+            throw (RuntimeException) ex;
+        }
+
+        LOG.info("Wrote " + numIds + " IDs to s3://" + bucket + '/' + key + " in " + partStream.getNumParts() +
+                " part(s)" + (gzip ? ", gzipped" : ""));
+        return numIds;
+    }
+
+    private ObjectMetadata makeMetadata() {
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentType("text/plain");
+        if (gzip) {
+            metadata.setContentEncoding("gzip");
+        }
+        metadata.setSSEAlgorithm(ObjectMetadata.AES_256_SERVER_SIDE_ENCRYPTION);
+        return metadata;
+    }
+
+    // Buffers bytes, and uploads each full buffer as a part. The buffer grows until it reaches the part size. The
+    // multipart upload is only started once the first part fills up. Closing the stream uploads the rest and finishes
+    // the upload.
+    private class PartOutputStream extends OutputStream {
+        private final String bucket;
+        private final String key;
+        private ByteBuffer buffer = ByteBuffer.allocate(Math.min(INITIAL_BUFFER_SIZE, partSize));
+        private final List<PartETag> partETagList = new ArrayList<>();
+        private String uploadId;
+        private boolean closed = false;
+
+        PartOutputStream(String bucket, String key) {
+            this.bucket = bucket;
+            this.key = key;
+        }
+
+        int getNumParts() {
+            return Math.max(partETagList.size(), 1);
+        }
+
+        @Override
+        public void write(int b) {
+            makeRoom();
+            buffer.put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) {
+            while (length > 0) {
+                makeRoom();
+                int copyLength = Math.min(length, buffer.remaining());
+                buffer.put(bytes, offset, copyLength);
+                offset += copyLength;
+                length -= copyLength;
+            }
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+
+            if (uploadId == null) {
+                // Everything fit in one part. Just put the object.
+                buffer.flip();
+                ObjectMetadata metadata = makeMetadata();
+                metadata.setContentLength(buffer.remaining());
+                s3Client.putObject(new PutObjectRequest(bucket, key, new ByteBufferInputStream(buffer), metadata));
+            } else {
+                if (buffer.position() > 0) {
+                    uploadPart();
+                }
+                s3Client.completeMultipartUpload(new CompleteMultipartUploadRequest(bucket, key, uploadId,
+                        partETagList));
+            }
+        }
+
+        // Don't leave incomplete uploads behind. S3 charges for their parts.
+        void abort() {
+            closed = true;
+            if (uploadId != null) {
+                try {
+                    s3Client.abortMultipartUpload(new AbortMultipartUploadRequest(bucket, key, uploadId));
+                } catch (RuntimeException ex) {
+                    LOG.error("Error aborting multipart upload " + uploadId, ex);
+                }
+            }
+        }
+
+        // If the buffer is full, grow it, or once it's as big as a part, upload it.
+        private void makeRoom() {
+            if (buffer.hasRemaining()) {
+                return;
+            }
+            if (buffer.capacity() < partSize) {
+                ByteBuffer newBuffer = ByteBuffer.allocate((int) Math.min(buffer.capacity() * 2L, partSize));
+                buffer.flip();
+                newBuffer.put(buffer);
+                buffer = newBuffer;
+            } else {
+                uploadPart();
+            }
+        }
+
+        private void uploadPart() {
+            if (uploadId == null) {
+                uploadId = s3Client.initiateMultipartUpload(new InitiateMultipartUploadRequest(bucket, key,
+                        makeMetadata())).getUploadId();
+            }
+
+            buffer.flip();
+            UploadPartRequest request = new UploadPartRequest().withBucketName(bucket).withKey(key)
+                    .withUploadId(uploadId).withPartNumber(partETagList.size() + 1).withPartSize(buffer.remaining())
+                    .withInputStream(new ByteBufferInputStream(buffer));
+            partETagList.add(s3Client.uploadPart(request).getPartETag());
+            buffer.clear();
+        }
+    }
+
+    // Reads the remaining bytes of a buffer, without copying it. Supports mark and reset, so the S3 client can retry.
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (length == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int readLength = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, readLength);
+            return readLength;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+
+        @Override
+        public boolean markSupported() {
+            return true;
+        }
+
+        @Override
+        public synchronized void mark(int readLimit) {
+            buffer.mark();
+        }
+
+        @Override
+        public synchronized void reset() {
+            buffer.reset();
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package org.sagebionetworks.bridge.exporter.integration;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.expectThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.PutObjectResult;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import com.amazonaws.services.s3.model.UploadPartResult;
+import com.amazonaws.util.IOUtils;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+// Runs against InMemoryAmazonS3, so this doesn't need a server.
+public class RedriveManifestWriterTest {
+    private static final String BUCKET = "test-bucket";
+    private static final String KEY = "test-manifest";
+
+    // 16 bytes per line, so this is a bit over 2 parts at the minimum part size.
+    private static final int NUM_MULTIPART_IDS = 700_000;
+
+    private RetryingInMemoryAmazonS3 s3Client;
+
+    @BeforeMethod
+    public void before() {
+        s3Client = new RetryingInMemoryAmazonS3();
+    }
+
+    @Test
+    public void singlePart() throws Exception {
+        long numWritten = new RedriveManifestWriter(s3Client).write(BUCKET, KEY, Stream.of("id-1", "id-2"));
+        assertEquals(numWritten, 2);
+
+        assertEquals(getContent(), "id-1\nid-2\n");
+        ObjectMetadata metadata = s3Client.getObjectMetadata(BUCKET, KEY);
+        assertEquals(metadata.getContentType(), "text/plain");
+        assertNull(metadata.getContentEncoding());
+        assertEquals(s3Client.numPuts, 1);
+        assertEquals(s3Client.numParts, 0);
+    }
+
+    @Test
+    public void emptyManifest() throws Exception {
+        long numWritten = new RedriveManifestWriter(s3Client).write(BUCKET, KEY, Stream.empty());
+        assertEquals(numWritten, 0);
+        assertEquals(getContent(), "");
+    }
+
+    @Test
+    public void multipart() throws Exception {
+        long numWritten = new RedriveManifestWriter(s3Client).write(BUCKET, KEY, makeIds());
+        assertEquals(numWritten, NUM_MULTIPART_IDS);
+
+        assertEquals(getContent(), makeExpectedContent());
+        assertEquals(s3Client.numPuts, 0);
+        assertEquals(s3Client.numParts, 3);
+        assertTrue(s3Client.getObjectMetadata(BUCKET, KEY).getETag().endsWith("-3"));
+        assertEquals(s3Client.getPendingMultipartUploadCount(), 0);
+    }
+
+    @Test
+    public void gzip() throws Exception {
+        long numWritten = new RedriveManifestWriter(s3Client).withGzip(true).write(BUCKET, KEY, makeIds());
+        assertEquals(numWritten, NUM_MULTIPART_IDS);
+
+        // The IDs compress well, so this fits in a single part.
+        assertEquals(s3Client.numPuts, 1);
+        ObjectMetadata metadata = s3Client.getObjectMetadata(BUCKET, KEY);
+        assertEquals(metadata.getContentEncoding(), "gzip");
+        byte[] gzippedContent = getContentBytes();
+        try (InputStream gunzipStream = new GZIPInputStream(new ByteArrayInputStream(gzippedContent))) {
+            assertEquals(new String(IOUtils.toByteArray(gunzipStream), StandardCharsets.UTF_8),
+                    makeExpectedContent());
+        }
+    }
+
+    @Test
+    public void errorAfterFirstPartAbortsUpload() {
+        // Fail after the first part has been uploaded, so there's a multipart upload to abort.
+        Iterator<String> idIterator = makeIds();
+        Iterator<String> failingIterator = new Iterator<String>() {
+            private int numIds = 0;
+
+            @Override
+            public boolean hasNext() {
+                return true;
+            }
+
+            @Override
+            public String next() {
+                if (++numIds > NUM_MULTIPART_IDS / 2) {
+                    throw new IllegalStateException("test error");
+                }
+                return idIterator.next();
+            }
+        };
+
+        IllegalStateException ex = expectThrows(IllegalStateException.class,
+                () -> new RedriveManifestWriter(s3Client).write(BUCKET, KEY, failingIterator));
+        assertEquals(ex.getMessage(), "test error");
+        assertTrue(s3Client.numParts > 0);
+        assertEquals(s3Client.getPendingMultipartUploadCount(), 0);
+        assertFalse(s3Client.doesObjectExist(BUCKET, KEY));
+    }
+
+    private static Iterator<String> makeIds() {
+        return IntStream.range(0, NUM_MULTIPART_IDS).mapToObj(i -> String.format("upload-%08d", i)).iterator();
+    }
+
+    private static String makeExpectedContent() {
+        StringBuilder builder = new StringBuilder();
+        makeIds().forEachRemaining(id -> builder.append(id).append('\n'));
+        return builder.toString();
+    }
+
+    private String getContent() throws IOException {
+        return new String(getContentBytes(), StandardCharsets.UTF_8);
+    }
+
+    private byte[] getContentBytes() throws IOException {
+        try (InputStream contentStream = s3Client.getObject(BUCKET, KEY).getObjectContent()) {
+            return IOUtils.toByteArray(contentStream);
+        }
+    }
+
+    // Reads the start of every upload, then resets the stream and reads it again, like the SDK does when it retries a
+    // request. Also counts puts and parts.
+    private static class RetryingInMemoryAmazonS3 extends InMemoryAmazonS3 {
+        int numPuts = 0;
+        int numParts = 0;
+
+        @Override
+        public PutObjectResult putObject(PutObjectRequest request) {
+            numPuts++;
+            readAndReset(request.getInputStream());
+            return super.putObject(request);
+        }
+
+        @Override
+        public UploadPartResult uploadPart(UploadPartRequest request) {
+            numParts++;
+            readAndReset(request.getInputStream());
+            return super.uploadPart(request);
+        }
+
+        private static void readAndReset(InputStream inputStream) {
+            assertTrue(inputStream.markSupported());
+            try {
+                inputStream.mark(Integer.MAX_VALUE);
+                //noinspection ResultOfMethodCallIgnored
+                inputStream.read(new byte[1024]);
+                inputStream.reset();
+            } catch (IOException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package org.sagebionetworks.bridge.exporter.integration;
+
+import static org.testng.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.util.BinaryUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Verifies that an S3 object has the expected content, in constant memory. The object's length is always checked
+ * against the expected length. Then, in order of preference:
+ * 1. If the ETag is a plain MD5 (single-part upload, not KMS-encrypted), compare it to the MD5 of the expected
+ *    content. This doesn't download the object at all.
+ * 2. If sampling is configured, download sampleCount ranges of sampleSize bytes, spread evenly across the object
+ *    (always including the first and last bytes), and compare them to the same ranges of the expected content.
+ * 3. Otherwise, stream the whole object through an MD5 digest and compare it to the MD5 of the expected content.
+ *
+ * Expected content can be a byte array or a file. Files are read in chunks, so multi-MB attachments are never held in
+ * memory.
+ */
+public class S3ContentVerifier {
+    private static final Logger LOG = LoggerFactory.getLogger(S3ContentVerifier.class);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final AmazonS3 s3Client;
+    private boolean useETag = true;
+    private int sampleCount = 0;
+    private int sampleSize = 0;
+
+    public S3ContentVerifier(AmazonS3 s3Client) {
+        this.s3Client = s3Client;
+    }
+
+    /** True to trust a plain-MD5 ETag instead of downloading the object. Defaults to true. */
+    public S3ContentVerifier withETag(boolean useETag) {
+        this.useETag = useETag;
+        return this;
+    }
+
+    /**
+     * Instead of downloading the whole object, download sampleCount ranges of sampleSize bytes. 0 (the default)
+     * downloads the whole object.
+     */
+    public S3ContentVerifier withSampledRanges(int sampleCount, int sampleSize) {
+        if (sampleCount == 1 || sampleCount < 0 || (sampleCount > 0 && sampleSize <= 0)) {
+            throw new IllegalArgumentException("sampleCount must be 0 or at least 2, and sampleSize must be positive");
+        }
+        this.sampleCount = sampleCount;
+        this.sampleSize = sampleSize;
+        return this;
+    }
+
+    /** Asserts that the object matches the expected bytes. Returns the object's metadata. */
+    public ObjectMetadata assertContentMatches(String bucket, String key, byte[] expected) throws IOException {
+        return assertContentMatches(bucket, key, new ExpectedBytes(expected));
+    }
+
+    /** Asserts that the object matches the contents of the expected file. Returns the object's metadata. */
+    public ObjectMetadata assertContentMatches(String bucket, String key, File expected) throws IOException {
+        return assertContentMatches(bucket, key, new ExpectedFile(expected));
+    }
+
+    private ObjectMetadata assertContentMatches(String bucket, String key, ExpectedContent expected)
+            throws IOException {
+        String objectDesc = "s3://" + bucket + '/' + key;
+        ObjectMetadata metadata = s3Client.getObjectMetadata(bucket, key);
+        assertEquals(metadata.getContentLength(), expected.length(), objectDesc + " has the wrong length");
+
+        if (useETag && isPlainMd5ETag(metadata)) {
+            assertEquals(metadata.getETag().toLowerCase(), BinaryUtils.toHex(expected.md5()),
+                    objectDesc + " ETag doesn't match");
+        } else if (sampleCount > 0 && expected.length() > (long) sampleCount * sampleSize) {
+            assertSampledRangesMatch(bucket, key, objectDesc, expected);
+        } else {
+            byte[] actualMd5;
+            try (S3Object s3Object = s3Client.getObject(bucket, key)) {
+                actualMd5 = md5(s3Object.getObjectContent());
+            }
+            assertEquals(BinaryUtils.toHex(actualMd5), BinaryUtils.toHex(expected.md5()),
+                    objectDesc + " content doesn't match");
+        }
+        return metadata;
+    }
+
+    // Ranges are spread evenly, with the first starting at byte 0 and the last ending at the last byte.
+    private void assertSampledRangesMatch(String bucket, String key, String objectDesc, ExpectedContent expected)
+            throws IOException {
+        long length = expected.length();
+        long stride = (length - sampleSize) / (sampleCount - 1);
+        for (int i = 0; i < sampleCount; i++) {
+            long start = i == sampleCount - 1 ? length - sampleSize : i * stride;
+            long end = start + sampleSize - 1;
+
+            byte[] actual;
+            GetObjectRequest request = new GetObjectRequest(bucket, key).withRange(start, end);
+            try (S3Object s3Object = s3Client.getObject(request)) {
+                actual = readFully(s3Object.getObjectContent(), sampleSize);
+            }
+            if (!Arrays.equals(actual, expected.readRange(start, sampleSize))) {
+                throw new AssertionError(objectDesc + " content doesn't match in bytes " + start + "-" + end);
+            }
+        }
+        LOG.info("Verified " + sampleCount + " sampled ranges of " + sampleSize + " bytes from " + objectDesc);
+    }
+
+    // Our buckets use SSE-S3, where the ETag is the MD5 of the content. Multipart ETags (with a -N suffix) and KMS
+    // ETags aren't.
+    private static boolean isPlainMd5ETag(ObjectMetadata metadata) {
+        String eTag = metadata.getETag();
+        return eTag != null && eTag.length() == 32 && eTag.indexOf('-') < 0 && metadata.getSSEAwsKmsKeyId() == null;
+    }
+
+    private static byte[] md5(InputStream inputStream) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException ex) {
+            // Every JVM has MD5.
+            throw new IllegalStateException(ex);
+        }
+
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int readLength;
+        while ((readLength = inputStream.read(buffer)) >= 0) {
+            digest.update(buffer, 0, readLength);
+        }
+        return digest.digest();
+    }
+
+    // Reads up to length bytes. Returns fewer if the stream ends first.
+    private static byte[] readFully(InputStream inputStream, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        int totalLength = 0;
+        int readLength;
+        while (totalLength < length && (readLength = inputStream.read(bytes, totalLength, length - totalLength)) >= 0) {
+            totalLength += readLength;
+        }
+        return totalLength == length ? bytes : Arrays.copyOf(bytes, totalLength);
+    }
+
+    // The content we expect to be in S3.
+    private interface ExpectedContent {
+        long length();
+
+        byte[] md5() throws IOException;
+
+        byte[] readRange(long start, int length) throws IOException;
+    }
+
+    private static class ExpectedBytes implements ExpectedContent {
+        private final byte[] bytes;
+
+        ExpectedBytes(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public long length() {
+            return bytes.length;
+        }
+
+        @Override
+        public byte[] md5() throws IOException {
+            return S3ContentVerifier.md5(new ByteArrayInputStream(bytes));
+        }
+
+        @Override
+        public byte[] readRange(long start, int length) {
+            return Arrays.copyOfRange(bytes, (int) start, (int) start + length);
+        }
+    }
+
+    private static class ExpectedFile implements ExpectedContent {
+        private final File file;
+
+        ExpectedFile(File file) {
+            this.file = file;
+        }
+
+        @Override
+        public long length() {
+            return file.length();
+        }
+
+        @Override
+        public byte[] md5() throws IOException {
+            try (InputStream fileStream = new FileInputStream(file)) {
+                return S3ContentVerifier.md5(fileStream);
+            }
+        }
+
+        @Override
+        public byte[] readRange(long start, int length) throws IOException {
+            try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+                byte[] bytes = new byte[length];
+                randomAccessFile.seek(start);
+                randomAccessFile.readFully(bytes);
+                return bytes;
+            }
+        }
+    }
+}
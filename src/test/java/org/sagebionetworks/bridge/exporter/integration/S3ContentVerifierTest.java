@@ -0,0 +1,207 @@
+package org.sagebionetworks.bridge.exporter.integration;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.expectThrows;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.util.BinaryUtils;
+import com.amazonaws.util.Md5Utils;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+// Runs against InMemoryAmazonS3, so this doesn't need a server.
+public class S3ContentVerifierTest {
+    private static final String BUCKET = "test-bucket";
+    private static final String KEY = "test-object";
+
+    // With 4 samples of 1000 bytes, the sampled ranges are 0-999, 33000-33999, 66000-66999, and 99000-99999.
+    private static final int CONTENT_LENGTH = 100_000;
+    private static final int SAMPLE_COUNT = 4;
+    private static final int SAMPLE_SIZE = 1000;
+
+    private static final byte[] CONTENT = makeContent();
+
+    private RecordingInMemoryAmazonS3 s3Client;
+
+    @BeforeMethod
+    public void before() {
+        s3Client = new RecordingInMemoryAmazonS3();
+    }
+
+    @Test
+    public void eTagMatches() throws Exception {
+        putSinglePart(CONTENT);
+        ObjectMetadata metadata = new S3ContentVerifier(s3Client).assertContentMatches(BUCKET, KEY, CONTENT);
+        assertEquals(metadata.getContentLength(), CONTENT_LENGTH);
+
+        // The ETag is enough, so the object is never downloaded.
+        assertTrue(s3Client.getRequestList.isEmpty());
+    }
+
+    @Test
+    public void eTagMismatch() {
+        putSinglePart(withByteChanged(CONTENT, 50_000));
+        AssertionError ex = expectThrows(AssertionError.class, () -> new S3ContentVerifier(s3Client)
+                .assertContentMatches(BUCKET, KEY, CONTENT));
+        assertTrue(ex.getMessage().contains("ETag doesn't match"), ex.getMessage());
+    }
+
+    @Test
+    public void lengthMismatch() {
+        putSinglePart(Arrays.copyOf(CONTENT, CONTENT_LENGTH - 1));
+        AssertionError ex = expectThrows(AssertionError.class, () -> new S3ContentVerifier(s3Client)
+                .assertContentMatches(BUCKET, KEY, CONTENT));
+        assertTrue(ex.getMessage().contains("wrong length"), ex.getMessage());
+        assertTrue(s3Client.getRequestList.isEmpty());
+    }
+
+    @Test
+    public void wholeObjectMatches() throws Exception {
+        putSinglePart(CONTENT);
+        new S3ContentVerifier(s3Client).withETag(false).assertContentMatches(BUCKET, KEY, CONTENT);
+        assertEquals(s3Client.getRequestList.size(), 1);
+        assertNull(s3Client.getRequestList.get(0).getRange());
+    }
+
+    @Test
+    public void wholeObjectMismatch() {
+        putSinglePart(withByteChanged(CONTENT, 50_000));
+        AssertionError ex = expectThrows(AssertionError.class, () -> new S3ContentVerifier(s3Client).withETag(false)
+                .assertContentMatches(BUCKET, KEY, CONTENT));
+        assertTrue(ex.getMessage().contains("content doesn't match"), ex.getMessage());
+    }
+
+    @Test
+    public void multipartETagIsNotTrusted() throws Exception {
+        // A multipart ETag isn't the MD5 of the content, so the verifier has to download the object.
+        putMultipart(CONTENT);
+        new S3ContentVerifier(s3Client).assertContentMatches(BUCKET, KEY, CONTENT);
+        assertEquals(s3Client.getRequestList.size(), 1);
+        assertNull(s3Client.getRequestList.get(0).getRange());
+    }
+
+    @Test
+    public void sampledRangesMatch() throws Exception {
+        putMultipart(CONTENT);
+        new S3ContentVerifier(s3Client).withSampledRanges(SAMPLE_COUNT, SAMPLE_SIZE).assertContentMatches(BUCKET,
+                KEY, CONTENT);
+        assertSampledRanges();
+    }
+
+    @Test
+    public void sampledRangesMismatch() {
+        putMultipart(withByteChanged(CONTENT, 33_500));
+        AssertionError ex = expectThrows(AssertionError.class, () -> new S3ContentVerifier(s3Client)
+                .withSampledRanges(SAMPLE_COUNT, SAMPLE_SIZE).assertContentMatches(BUCKET, KEY, CONTENT));
+        assertTrue(ex.getMessage().contains("bytes 33000-33999"), ex.getMessage());
+    }
+
+    @Test
+    public void sampledRangesSkippedForSmallObject() throws Exception {
+        // The samples would cover the whole object, so it's cheaper to download it once.
+        byte[] smallContent = Arrays.copyOf(CONTENT, SAMPLE_COUNT * SAMPLE_SIZE);
+        putMultipart(smallContent);
+        new S3ContentVerifier(s3Client).withSampledRanges(SAMPLE_COUNT, SAMPLE_SIZE).assertContentMatches(BUCKET,
+                KEY, smallContent);
+        assertEquals(s3Client.getRequestList.size(), 1);
+        assertNull(s3Client.getRequestList.get(0).getRange());
+    }
+
+    @Test
+    public void expectedFile() throws Exception {
+        File expectedFile = File.createTempFile("S3ContentVerifierTest", ".bin");
+        try {
+            Files.write(expectedFile.toPath(), CONTENT);
+            putMultipart(CONTENT);
+
+            // Whole object.
+            new S3ContentVerifier(s3Client).assertContentMatches(BUCKET, KEY, expectedFile);
+            assertEquals(s3Client.getRequestList.size(), 1);
+
+            // Sampled ranges, read from the file with random access.
+            s3Client.getRequestList.clear();
+            new S3ContentVerifier(s3Client).withSampledRanges(SAMPLE_COUNT, SAMPLE_SIZE).assertContentMatches(
+                    BUCKET, KEY, expectedFile);
+            assertSampledRanges();
+
+            // Mismatch.
+            Files.write(expectedFile.toPath(), withByteChanged(CONTENT, 99_999));
+            AssertionError ex = expectThrows(AssertionError.class, () -> new S3ContentVerifier(s3Client)
+                    .withSampledRanges(SAMPLE_COUNT, SAMPLE_SIZE).assertContentMatches(BUCKET, KEY, expectedFile));
+            assertTrue(ex.getMessage().contains("bytes 99000-99999"), ex.getMessage());
+        } finally {
+            expectedFile.delete();
+        }
+    }
+
+    @Test
+    public void invalidSampledRanges() {
+        S3ContentVerifier verifier = new S3ContentVerifier(s3Client);
+        expectThrows(IllegalArgumentException.class, () -> verifier.withSampledRanges(1, SAMPLE_SIZE));
+        expectThrows(IllegalArgumentException.class, () -> verifier.withSampledRanges(-1, SAMPLE_SIZE));
+        expectThrows(IllegalArgumentException.class, () -> verifier.withSampledRanges(SAMPLE_COUNT, 0));
+
+        // 0 turns sampling off.
+        verifier.withSampledRanges(0, 0);
+    }
+
+    private void assertSampledRanges() {
+        assertEquals(s3Client.getRequestList.size(), SAMPLE_COUNT);
+        long[] expectedStarts = { 0, 33_000, 66_000, 99_000 };
+        for (int i = 0; i < SAMPLE_COUNT; i++) {
+            long[] range = s3Client.getRequestList.get(i).getRange();
+            assertEquals(range[0], expectedStarts[i]);
+            assertEquals(range[1], expectedStarts[i] + SAMPLE_SIZE - 1);
+        }
+    }
+
+    // Stores the content with a plain MD5 ETag, like a single-part upload.
+    private void putSinglePart(byte[] content) {
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentLength(content.length);
+        metadata.setHeader("ETag", BinaryUtils.toHex(Md5Utils.computeMD5Hash(content)));
+        s3Client.put(BUCKET, KEY, content, metadata);
+    }
+
+    // Stores the content with a multipart ETag.
+    private void putMultipart(byte[] content) {
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentLength(content.length);
+        metadata.setHeader("ETag", BinaryUtils.toHex(Md5Utils.computeMD5Hash(content)) + "-2");
+        s3Client.put(BUCKET, KEY, content, metadata);
+    }
+
+    private static byte[] makeContent() {
+        byte[] content = new byte[CONTENT_LENGTH];
+        new Random(42).nextBytes(content);
+        return content;
+    }
+
+    private static byte[] withByteChanged(byte[] content, int index) {
+        byte[] changed = content.clone();
+        changed[index]++;
+        return changed;
+    }
+
+    // Records every get, so tests can check what was downloaded.
+    private static class RecordingInMemoryAmazonS3 extends InMemoryAmazonS3 {
+        final List<GetObjectRequest> getRequestList = new ArrayList<>();
+
+        @Override
+        public S3Object getObject(GetObjectRequest request) {
+            getRequestList.add(request);
+            return super.getObject(request);
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package org.sagebionetworks.bridge.exporter.integration;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.google.common.collect.ImmutableList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.sagebionetworks.bridge.rest.api.ForDevelopersApi;
+import org.sagebionetworks.bridge.rest.api.SchedulesV2Api;
+import org.sagebionetworks.bridge.rest.api.UploadSchemasApi;
+import org.sagebionetworks.bridge.rest.exceptions.EntityNotFoundException;
+import org.sagebionetworks.bridge.rest.model.Schedule2;
+import org.sagebionetworks.bridge.rest.model.SchedulePlan;
+import org.sagebionetworks.bridge.rest.model.UploadSchema;
+import org.sagebionetworks.bridge.user.TestUser;
+import org.sagebionetworks.bridge.user.TestUserHelper;
+
+/**
+ * Suite-wide cache of server-side fixtures: upload schemas, schedule plans, and study schedules. The first call to
+ * get() discovers existing fixtures in parallel (one call for each schema, one list call for all schedule plans, and
+ * one call for each study schedule), and caches what it finds. After that, ensure methods only call the server to
+ * create what's missing.
+ *
+ * Study schedules are different from the others, in that tests create and delete them (under a study schedule lease).
+ * Tests that do must call recordStudySchedule() and forgetStudySchedule(), so the cache stays accurate.
+ */
+public class SuiteFixtures {
+    private static final Logger LOG = LoggerFactory.getLogger(SuiteFixtures.class);
+
+    // Fixtures we know to look for up front. Anything else is looked up the first time it's asked for.
+    private static final List<String> KNOWN_SCHEMA_IDS = ImmutableList.of(TestUtils.LARGE_TEXT_ATTACHMENT_SCHEMA_ID);
+    private static final List<String> KNOWN_STUDY_IDS = ImmutableList.of("study1");
+    private static final int DISCOVERY_THREADS = 4;
+
+    private static SuiteFixtures instance;
+
+    private final Set<String> schemaIdSet = ConcurrentHashMap.newKeySet();
+    private final Map<String, String> schedulePlanGuidsByLabel = new ConcurrentHashMap<>();
+    private final Set<String> discoveredStudyIdSet = ConcurrentHashMap.newKeySet();
+    private final Map<String, String> studyScheduleGuidsByStudyId = new ConcurrentHashMap<>();
+
+    /** Returns the suite's fixtures, discovering them on the first call. */
+    public static synchronized SuiteFixtures get() throws Exception {
+        if (instance == null) {
+            SuiteFixtures fixtures = new SuiteFixtures();
+            fixtures.discover(TestUserHelper.getSignedInAdmin());
+            instance = fixtures;
+        }
+        return instance;
+    }
+
+    private void discover(TestUser admin) throws IOException {
+        long startMillis = System.currentTimeMillis();
+        ExecutorService executorService = Executors.newFixedThreadPool(DISCOVERY_THREADS);
+        try {
+            CompletableFuture<?>[] futures = new CompletableFuture[KNOWN_SCHEMA_IDS.size() + KNOWN_STUDY_IDS.size()
+                    + 1];
+            int i = 0;
+            for (String oneSchemaId : KNOWN_SCHEMA_IDS) {
+                futures[i++] = runAsync(() -> lookUpSchema(admin, oneSchemaId), executorService);
+            }
+            for (String oneStudyId : KNOWN_STUDY_IDS) {
+                futures[i++] = runAsync(() -> lookUpStudySchedule(admin, oneStudyId), executorService);
+            }
+            futures[i] = runAsync(() -> {
+                List<SchedulePlan> schedulePlanList = admin.getClient(ForDevelopersApi.class).getSchedulePlans(false)
+                        .execute().body().getItems();
+                for (SchedulePlan onePlan : schedulePlanList) {
+                    if (onePlan.getLabel() != null) {
+                        schedulePlanGuidsByLabel.put(onePlan.getLabel(), onePlan.getGuid());
+                    }
+                }
+            }, executorService);
+            CompletableFuture.allOf(futures).join();
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) ex.getCause()).getCause();
+            }
+            throw ex;
+        } finally {
+            executorService.shutdown();
+        }
+        LOG.info("Discovered suite fixtures in " + (System.currentTimeMillis() - startMillis) + "ms: schemas=" +
+                schemaIdSet + ", schedulePlans=" + schedulePlanGuidsByLabel.keySet() + ", studySchedules=" +
+                studyScheduleGuidsByStudyId);
+    }
+
+    /** Creates the upload schema if there's no schema with its ID. */
+    public synchronized void ensureUploadSchema(TestUser developer, UploadSchema schema) throws IOException {
+        String schemaId = schema.getSchemaId();
+        if (!KNOWN_SCHEMA_IDS.contains(schemaId) && !schemaIdSet.contains(schemaId)) {
+            // Not discovered up front. Look it up now.
+            lookUpSchema(developer, schemaId);
+        }
+        if (!schemaIdSet.contains(schemaId)) {
+            developer.getClient(UploadSchemasApi.class).createUploadSchema(schema).execute();
+            schemaIdSet.add(schemaId);
+            LOG.info("Created upload schema " + schemaId);
+        }
+    }
+
+    /** Creates the schedule plan if there's no plan with its label. Returns the plan's GUID. */
+    public synchronized String ensureSchedulePlan(TestUser developer, SchedulePlan plan) throws IOException {
+        String guid = schedulePlanGuidsByLabel.get(plan.getLabel());
+        if (guid == null) {
+            guid = developer.getClient(ForDevelopersApi.class).createSchedulePlan(plan).execute().body().getGuid();
+            schedulePlanGuidsByLabel.put(plan.getLabel(), guid);
+            LOG.info("Created schedule plan " + plan.getLabel());
+        }
+        return guid;
+    }
+
+    /** True if the study has a schedule. Callers should hold the study schedule lease. */
+    public boolean hasStudySchedule(TestUser admin, String studyId) throws IOException {
+        if (!discoveredStudyIdSet.contains(studyId)) {
+            lookUpStudySchedule(admin, studyId);
+        }
+        return studyScheduleGuidsByStudyId.containsKey(studyId);
+    }
+
+    /** Call this after creating a study's schedule. */
+    public void recordStudySchedule(String studyId, String scheduleGuid) {
+        discoveredStudyIdSet.add(studyId);
+        studyScheduleGuidsByStudyId.put(studyId, scheduleGuid);
+    }
+
+    /** Call this after deleting a study's schedule. */
+    public void forgetStudySchedule(String studyId) {
+        discoveredStudyIdSet.add(studyId);
+        studyScheduleGuidsByStudyId.remove(studyId);
+    }
+
+    private void lookUpSchema(TestUser user, String schemaId) throws IOException {
+        try {
+            user.getClient(UploadSchemasApi.class).getMostRecentUploadSchema(schemaId).execute();
+            schemaIdSet.add(schemaId);
+        } catch (EntityNotFoundException ex) {
+            // Not there yet.
+        }
+    }
+
+    private void lookUpStudySchedule(TestUser admin, String studyId) throws IOException {
+        try {
+            Schedule2 schedule = admin.getClient(SchedulesV2Api.class).getScheduleForStudy(studyId).execute().body();
+            studyScheduleGuidsByStudyId.put(studyId, schedule.getGuid());
+        } catch (EntityNotFoundException ex) {
+            studyScheduleGuidsByStudyId.remove(studyId);
+        }
+        discoveredStudyIdSet.add(studyId);
+    }
+
+    private static CompletableFuture<Void> runAsync(DiscoveryStep step, ExecutorService executorService) {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                step.run();
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }, executorService);
+    }
+
+    // One discovery call.
+    @FunctionalInterface
+    private interface DiscoveryStep {
+        void run() throws IOException;
+    }
+}
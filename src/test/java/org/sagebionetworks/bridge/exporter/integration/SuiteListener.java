@@ -0,0 +1,60 @@
+package org.sagebionetworks.bridge.exporter.integration;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.ISuite;
+import org.testng.ISuiteListener;
+import org.testng.ITestNGMethod;
+
+import org.sagebionetworks.bridge.config.Config;
+
+/** Sets up and tears down suite-wide resources. Registered with TestNG in the surefire config in the POM. */
+public class SuiteListener implements ISuiteListener {
+    private static final Logger LOG = LoggerFactory.getLogger(SuiteListener.class);
+
+    private static final String LOAD_GROUP = "load";
+
+    @Override
+    public void onStart(ISuite suite) {
+        try {
+            // Load runs (mvn test -Pload) and local backend runs take few or no pooled users, and the pool creates
+            // users on demand anyway. So only fill the pool up front for regular runs against real backends.
+            Config config = TestUtils.loadConfig();
+            if (LocalBackends.isEnabled(config)) {
+                LOG.info("Local backends enabled, not filling test user pool");
+            } else if (isLoadOnly(suite)) {
+                LOG.info("Only load tests are running, not filling test user pool");
+            } else {
+                TestUserPool.fillAll();
+            }
+        } catch (Exception ex) {
+            throw new RuntimeException("Error filling test user pool", ex);
+        }
+    }
+
+    @Override
+    public void onFinish(ISuite suite) {
+        TestUserPool.shutdownAll();
+
+        try {
+            WorkerTimings.writeReport(new File(WorkerTimings.REPORT_FILE));
+        } catch (IOException ex) {
+            LOG.error("Error writing worker timings", ex);
+        }
+    }
+
+    // True if every method the suite will run is in the load group. The suite only includes the methods its groups
+    // select, so this is true for mvn test -Pload.
+    private static boolean isLoadOnly(ISuite suite) {
+        for (ITestNGMethod oneMethod : suite.getAllMethods()) {
+            if (!Arrays.asList(oneMethod.getGroups()).contains(LOAD_GROUP)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,99 @@
+package org.sagebionetworks.bridge.exporter.integration;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import org.sagebionetworks.client.SynapseClient;
+import org.sagebionetworks.client.exceptions.SynapseException;
+import org.sagebionetworks.client.exceptions.SynapseNotFoundException;
+
+/**
+ * Caches Synapse child lookups (parent ID + child name -> child ID), so tests that keep looking up the same folder
+ * (eg, today's folder under the raw data folder) only call lookupChild once. Entries expire after ttlMillis, and the
+ * cache holds at most maxSize entries.
+ *
+ * Misses are cached too, but for a shorter time, since the thing we're looking for is usually about to be
+ * created. Callers that expect a missing child to have appeared (eg, after a redrive) should invalidate() first.
+ * Deleting an entity through deleteEntityById() drops any entry that points to it.
+ */
+public class SynapseChildLookupCache {
+    public static final long DEFAULT_TTL_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    public static final long DEFAULT_NEGATIVE_TTL_MILLIS = TimeUnit.SECONDS.toMillis(5);
+    public static final long DEFAULT_MAX_SIZE = 1000;
+
+    private final SynapseClient synapseClient;
+    private final Cache<String, LookupResult> lookupResultCache;
+    private final long negativeTtlMillis;
+
+    public SynapseChildLookupCache(SynapseClient synapseClient) {
+        this(synapseClient, DEFAULT_TTL_MILLIS, DEFAULT_NEGATIVE_TTL_MILLIS, DEFAULT_MAX_SIZE);
+    }
+
+    public SynapseChildLookupCache(SynapseClient synapseClient, long ttlMillis, long negativeTtlMillis,
+            long maxSize) {
+        this.synapseClient = synapseClient;
+        this.lookupResultCache = CacheBuilder.newBuilder().expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS)
+                .maximumSize(maxSize).build();
+        this.negativeTtlMillis = negativeTtlMillis;
+    }
+
+    /** Returns the ID of the named child of the given parent, or null if there is no such child. */
+    public String lookupChild(String parentId, String childName) throws SynapseException {
+        String key = makeKey(parentId, childName);
+        LookupResult result = getOrLoad(key, parentId, childName);
+        if (result.childId == null && System.currentTimeMillis() - result.lookedUpAtMillis >= negativeTtlMillis) {
+            // Guava doesn't do per-entry TTLs, so stale misses are expired here.
+            lookupResultCache.invalidate(key);
+            result = getOrLoad(key, parentId, childName);
+        }
+        return result.childId;
+    }
+
+    /** Forgets the cached lookup for the given child, so the next lookup goes to Synapse. */
+    public void invalidate(String parentId, String childName) {
+        lookupResultCache.invalidate(makeKey(parentId, childName));
+    }
+
+    /** Deletes the entity from Synapse, and forgets any cached lookup that points to it. */
+    public void deleteEntityById(String entityId, boolean skipTrashCan) throws SynapseException {
+        synapseClient.deleteEntityById(entityId, skipTrashCan);
+        lookupResultCache.asMap().values().removeIf(result -> entityId.equals(result.childId));
+    }
+
+    private LookupResult getOrLoad(String key, String parentId, String childName) throws SynapseException {
+        try {
+            return lookupResultCache.get(key, () -> {
+                String childId;
+                try {
+                    childId = synapseClient.lookupChild(parentId, childName);
+                } catch (SynapseNotFoundException ex) {
+                    childId = null;
+                }
+                return new LookupResult(childId, System.currentTimeMillis());
+            });
+        } catch (ExecutionException | UncheckedExecutionException ex) {
+            if (ex.getCause() instanceof SynapseException) {
+                throw (SynapseException) ex.getCause();
+            }
+            throw new IllegalStateException("Error looking up " + childName + " in " + parentId, ex.getCause());
+        }
+    }
+
+    private static String makeKey(String parentId, String childName) {
+        return parentId + '/' + childName;
+    }
+
+    // Result of one lookupChild call. childId is null if the child doesn't exist. (Guava caches can't hold nulls.)
+    private static class LookupResult {
+        final String childId;
+        final long lookedUpAtMillis;
+
+        LookupResult(String childId, long lookedUpAtMillis) {
+            this.childId = childId;
+            this.lookedUpAtMillis = lookedUpAtMillis;
+        }
+    }
+}
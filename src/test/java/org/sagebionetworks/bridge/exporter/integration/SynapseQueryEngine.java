@@ -0,0 +1,124 @@
+package org.sagebionetworks.bridge.exporter.integration;
+
+import java.util.LongSummaryStatistics;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.sagebionetworks.client.SynapseClient;
+import org.sagebionetworks.repo.model.table.QueryResultBundle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs Synapse table queries asynchronously. At most maxConcurrentQueries queries are in flight at once, so that
+ * apps with many tables don't flood Synapse. All pending jobs are timed from a single shared scheduler, which hands
+ * each poll to a poll pool (sized to maxConcurrentQueries) to make the Synapse call. Each job backs off exponentially
+ * while its result isn't ready (see AsyncJobAwaiter), instead of polling on a fixed interval. Latency of each query
+ * (start to result) is recorded, and can be retrieved with getLatencyStats().
+ *
+ * All threads are daemon threads, so an engine that isn't shut down doesn't keep the JVM alive.
+ */
+public class SynapseQueryEngine {
+    private static final Logger LOG = LoggerFactory.getLogger(SynapseQueryEngine.class);
+
+    public static final int DEFAULT_MAX_CONCURRENT_QUERIES = 4;
+    private static final long INITIAL_POLL_DELAY_MILLIS = 500;
+
+    private final SynapseClient synapseClient;
+    private final Semaphore queryPermits;
+    private final ExecutorService startExecutor;
+    private final ScheduledExecutorService pollScheduler;
+    private final ExecutorService pollExecutor;
+    private final AsyncJobAwaiter jobAwaiter = new AsyncJobAwaiter().withInitialDelayMillis(INITIAL_POLL_DELAY_MILLIS);
+    private final ConcurrentLinkedQueue<Long> latencyMillisQueue = new ConcurrentLinkedQueue<>();
+
+    public SynapseQueryEngine(SynapseClient synapseClient) {
+        this(synapseClient, DEFAULT_MAX_CONCURRENT_QUERIES);
+    }
+
+    public SynapseQueryEngine(SynapseClient synapseClient, int maxConcurrentQueries) {
+        this.synapseClient = synapseClient;
+        this.queryPermits = new Semaphore(maxConcurrentQueries);
+        this.startExecutor = Executors.newFixedThreadPool(maxConcurrentQueries, daemonThreadFactory(
+                "synapse-query-start-%d"));
+        this.pollScheduler = Executors.newSingleThreadScheduledExecutor(daemonThreadFactory(
+                "synapse-query-scheduler"));
+
+        // Polls get their own pool, not startExecutor. Start tasks block on queryPermits, and the permits are only
+        // released when polls finish, so polls queued behind blocked start tasks would never run. At most
+        // maxConcurrentQueries jobs are in flight, so that's as many polls as can ever be due at once.
+        this.pollExecutor = Executors.newFixedThreadPool(maxConcurrentQueries, daemonThreadFactory(
+                "synapse-query-poll-%d"));
+    }
+
+    /** Delay before the first poll of each query. Defaults to 500ms. */
+    public SynapseQueryEngine withInitialPollDelayMillis(long initialPollDelayMillis) {
+        jobAwaiter.withInitialDelayMillis(initialPollDelayMillis);
+        return this;
+    }
+
+    /**
+     * Starts the given query against the given table and returns a future for the result. If there are already
+     * maxConcurrentQueries in flight, the query waits until one of them finishes.
+     */
+    public CompletableFuture<QueryResultBundle> query(String sql, String tableId, int partMask) {
+        CompletableFuture<QueryResultBundle> future = new CompletableFuture<>();
+        startExecutor.execute(() -> {
+            try {
+                queryPermits.acquire();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                future.completeExceptionally(ex);
+                return;
+            }
+
+            long startMillis = System.currentTimeMillis();
+            String jobToken;
+            try {
+                jobToken = synapseClient.queryTableEntityBundleAsyncStart(sql, 0L, null, partMask, tableId);
+            } catch (Exception ex) {
+                queryPermits.release();
+                future.completeExceptionally(ex);
+                return;
+            }
+
+            jobAwaiter.awaitAsync(pollScheduler, pollExecutor, "query on " + tableId,
+                    () -> synapseClient.queryTableEntityBundleAsyncGet(jobToken, tableId))
+                    .whenComplete((result, ex) -> {
+                        queryPermits.release();
+                        if (ex != null) {
+                            future.completeExceptionally(ex);
+                        } else {
+                            long latencyMillis = System.currentTimeMillis() - startMillis;
+                            latencyMillisQueue.add(latencyMillis);
+                            LOG.info("Synapse query on " + tableId + " finished in " + latencyMillis + "ms");
+                            future.complete(result);
+                        }
+                    });
+        });
+        return future;
+    }
+
+    /** Latency stats (in millis) for all queries that completed successfully. */
+    public LongSummaryStatistics getLatencyStats() {
+        return latencyMillisQueue.stream().mapToLong(Long::longValue).summaryStatistics();
+    }
+
+    /** Shuts down the engine. Pending queries are abandoned. */
+    public void shutdown() {
+        LOG.info("Synapse query latency (ms): " + getLatencyStats());
+        startExecutor.shutdownNow();
+        pollScheduler.shutdownNow();
+        pollExecutor.shutdownNow();
+    }
+
+    private static ThreadFactory daemonThreadFactory(String nameFormat) {
+        return new ThreadFactoryBuilder().setNameFormat(nameFormat).setDaemon(true).build();
+    }
+}
@@ -0,0 +1,135 @@
+package org.sagebionetworks.bridge.exporter.integration;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.amazonaws.auth.AWSCredentials;
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.auth.BasicSessionCredentials;
+import com.amazonaws.regions.Regions;
+import com.amazonaws.services.s3.AmazonS3Client;
+import org.sagebionetworks.client.SynapseClient;
+import org.sagebionetworks.client.exceptions.SynapseException;
+import org.sagebionetworks.repo.model.sts.StsCredentials;
+import org.sagebionetworks.repo.model.sts.StsPermission;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * S3 clients for reading and writing Synapse STS-enabled folders, cached by (folder ID, permission). Each client's
+ * credentials come from Synapse STS, and are refreshed in the background refreshAheadMillis before they expire, so
+ * tests that read the same folder over and over reuse one warm client and don't wait on STS.
+ *
+ * If a background refresh fails, credentials are refreshed on the next use instead, once they're within
+ * refreshAheadMillis of expiring.
+ */
+@SuppressWarnings("deprecation")
+public class SynapseS3ClientCache {
+    private static final Logger LOG = LoggerFactory.getLogger(SynapseS3ClientCache.class);
+
+    public static final long DEFAULT_REFRESH_AHEAD_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    private final SynapseClient synapseClient;
+    private final ConcurrentMap<String, AmazonS3Client> s3ClientsByKey = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService refreshScheduler = Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+                Thread thread = new Thread(runnable, "sts-refresh");
+                thread.setDaemon(true);
+                return thread;
+            });
+    private long refreshAheadMillis = DEFAULT_REFRESH_AHEAD_MILLIS;
+
+    public SynapseS3ClientCache(SynapseClient synapseClient) {
+        this.synapseClient = synapseClient;
+    }
+
+    /** How long before expiry credentials are refreshed. Defaults to 5 minutes. */
+    public SynapseS3ClientCache withRefreshAheadMillis(long refreshAheadMillis) {
+        this.refreshAheadMillis = refreshAheadMillis;
+        return this;
+    }
+
+    /** Returns the S3 client for the given Synapse folder and permission, creating it if needed. */
+    public AmazonS3Client getS3Client(String folderId, StsPermission permission) {
+        return s3ClientsByKey.computeIfAbsent(folderId + ':' + permission, key -> {
+            LOG.info("Creating S3 client for Synapse folder " + folderId + " (" + permission + ")");
+            AWSCredentialsProvider credentialsProvider = new RefreshingStsCredentialsProvider(folderId, permission);
+            return new AmazonS3Client(credentialsProvider).withRegion(Regions.US_EAST_1);
+        });
+    }
+
+    /** Stops background refreshes and shuts down all cached clients. */
+    public void shutdown() {
+        refreshScheduler.shutdownNow();
+        for (AmazonS3Client oneS3Client : s3ClientsByKey.values()) {
+            oneS3Client.shutdown();
+        }
+        s3ClientsByKey.clear();
+    }
+
+    // Credentials for one folder and permission. Fetched on first use, then refreshed ahead of expiry.
+    private class RefreshingStsCredentialsProvider implements AWSCredentialsProvider {
+        private final String folderId;
+        private final StsPermission permission;
+        private AWSCredentials credentials;
+        private long refreshAtMillis;
+        private ScheduledFuture<?> pendingRefresh;
+
+        RefreshingStsCredentialsProvider(String folderId, StsPermission permission) {
+            this.folderId = folderId;
+            this.permission = permission;
+        }
+
+        @Override
+        public synchronized AWSCredentials getCredentials() {
+            if (credentials == null || System.currentTimeMillis() >= refreshAtMillis) {
+                refresh();
+            }
+            return credentials;
+        }
+
+        @Override
+        public synchronized void refresh() {
+            StsCredentials stsCredentials;
+            try {
+                stsCredentials = synapseClient.getTemporaryCredentialsForEntity(folderId, permission);
+            } catch (SynapseException ex) {
+                throw new IllegalStateException("Error getting STS credentials for Synapse folder " + folderId, ex);
+            }
+            credentials = new BasicSessionCredentials(stsCredentials.getAccessKeyId(),
+                    stsCredentials.getSecretAccessKey(), stsCredentials.getSessionToken());
+
+            // Refresh in the background before the credentials get close to expiry. If the credentials are short-lived,
+            // refresh halfway through their lifetime instead, so we don't refresh on every call.
+            long nowMillis = System.currentTimeMillis();
+            long expirationMillis = stsCredentials.getExpiration().getTime();
+            long lifetimeMillis = Math.max(expirationMillis - nowMillis, 0);
+            refreshAtMillis = expirationMillis - Math.min(refreshAheadMillis, lifetimeMillis / 2);
+            long delayMillis = refreshAtMillis - nowMillis;
+
+            // Only one background refresh is ever pending. This refresh may have come from getCredentials() or the
+            // SDK, rather than the pending one, so cancel it before scheduling the next.
+            if (pendingRefresh != null) {
+                pendingRefresh.cancel(false);
+                pendingRefresh = null;
+            }
+            if (delayMillis > 0 && !refreshScheduler.isShutdown()) {
+                pendingRefresh = refreshScheduler.schedule(this::backgroundRefresh, delayMillis,
+                        TimeUnit.MILLISECONDS);
+            }
+        }
+
+        private void backgroundRefresh() {
+            try {
+                refresh();
+            } catch (RuntimeException ex) {
+                // Not fatal. getCredentials() refreshes on the next use.
+                LOG.warn("Background STS refresh failed for Synapse folder " + folderId, ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package org.sagebionetworks.bridge.exporter.integration;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.amazonaws.util.IOUtils;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.collect.ImmutableMap;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.sagebionetworks.repo.model.annotation.v2.Annotations;
+import org.sagebionetworks.repo.model.asynch.AsynchJobState;
+import org.sagebionetworks.repo.model.asynch.AsynchronousJobStatus;
+import org.sagebionetworks.repo.model.sts.StsCredentials;
+import org.sagebionetworks.repo.model.table.QueryResultBundle;
+import org.sagebionetworks.schema.adapter.JSONEntity;
+import org.sagebionetworks.schema.adapter.org.json.EntityFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.sagebionetworks.bridge.json.DefaultObjectMapper;
+
+/**
+ * Local HTTP stand-in for the subset of Synapse the suite uses: child lookup, annotations, entity and team delete,
+ * STS credentials, and async table queries. Point a SynapseClient at getEndpoint() (the same way we point it at
+ * synapse.endpoint) to use it.
+ *
+ * Responses come from fixtures that tests register with the put methods. Every request is delayed by the configured
+ * latency, and async table queries report "not ready" for the configured number of polls, so we can profile the
+ * verification pipeline against realistic (or exaggerated) Synapse behavior without a network.
+ */
+public class SynapseStandInServer {
+    private static final Logger LOG = LoggerFactory.getLogger(SynapseStandInServer.class);
+
+    private static final Pattern ANNOTATIONS_PATTERN = Pattern.compile("/repo/v1/entity/([^/]+)/annotations2");
+    private static final Pattern ENTITY_PATTERN = Pattern.compile("/repo/v1/entity/([^/]+)");
+    private static final Pattern QUERY_GET_PATTERN = Pattern.compile(
+            "/repo/v1/entity/([^/]+)/table/query/async/get/([^/]+)");
+    private static final Pattern QUERY_START_PATTERN = Pattern.compile(
+            "/repo/v1/entity/([^/]+)/table/query/async/start");
+    private static final Pattern STS_PATTERN = Pattern.compile("/repo/v1/entity/([^/]+)/sts");
+    private static final Pattern TEAM_PATTERN = Pattern.compile("/repo/v1/team/([^/]+)");
+    private static final String LOOKUP_CHILD_PATH = "/repo/v1/entity/child";
+
+    private final ExecutorService executorService = Executors.newCachedThreadPool();
+    private final HttpServer server;
+    private final AtomicLong latencyMillis = new AtomicLong();
+    private final AtomicInteger pollsBeforeReady = new AtomicInteger();
+    private final AtomicInteger requestCount = new AtomicInteger();
+
+    // Fixtures.
+    private final ConcurrentMap<String, String> childIdsByParentAndName = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Annotations> annotationsById = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, StsCredentials> stsCredentialsById = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, QueryResultBundle> queryResultsByTableId = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, AtomicInteger> remainingPollsByToken = new ConcurrentHashMap<>();
+
+    /** Creates and starts the stand-in on an ephemeral port. */
+    public SynapseStandInServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", this::handle);
+        server.setExecutor(executorService);
+        server.start();
+        LOG.info("Synapse stand-in listening on " + getEndpoint());
+    }
+
+    /** Base endpoint, in the same form as synapse.endpoint (eg, http://localhost:1234/). */
+    public String getEndpoint() {
+        return "http://localhost:" + server.getAddress().getPort() + "/";
+    }
+
+    /** Latency added to every request. */
+    public void setLatencyMillis(long latencyMillis) {
+        this.latencyMillis.set(latencyMillis);
+    }
+
+    /** Number of times an async table query reports "not ready" before returning its result. */
+    public void setPollsBeforeReady(int pollsBeforeReady) {
+        this.pollsBeforeReady.set(pollsBeforeReady);
+    }
+
+    /** Number of requests served so far. */
+    public int getRequestCount() {
+        return requestCount.get();
+    }
+
+    public void putChild(String parentId, String childName, String childId) {
+        childIdsByParentAndName.put(parentId + '/' + childName, childId);
+    }
+
+    public void putAnnotations(String entityId, Annotations annotations) {
+        annotationsById.put(entityId, annotations);
+    }
+
+    public void putStsCredentials(String entityId, StsCredentials credentials) {
+        stsCredentialsById.put(entityId, credentials);
+    }
+
+    /** Sets the result for all queries against the given table. */
+    public void putQueryResult(String tableId, QueryResultBundle queryResultBundle) {
+        queryResultsByTableId.put(tableId, queryResultBundle);
+    }
+
+    public void stop() {
+        server.stop(0);
+        executorService.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requestCount.incrementAndGet();
+        try {
+            long latency = latencyMillis.get();
+            if (latency > 0) {
+                Thread.sleep(latency);
+            }
+            route(exchange);
+        } catch (Exception ex) {
+            LOG.error("Synapse stand-in error handling " + exchange.getRequestURI(), ex);
+            sendError(exchange, 500, ex.getMessage());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void route(HttpExchange exchange) throws Exception {
+        String method = exchange.getRequestMethod();
+        String path = exchange.getRequestURI().getPath();
+        Matcher matcher;
+
+        if ("POST".equals(method) && LOOKUP_CHILD_PATH.equals(path)) {
+            JsonNode requestNode = DefaultObjectMapper.INSTANCE.readTree(readBody(exchange));
+            String childId = childIdsByParentAndName.get(requestNode.get("parentId").textValue() + '/' +
+                    requestNode.get("entityName").textValue());
+            if (childId == null) {
+                sendError(exchange, 404, "Child not found");
+            } else {
+                sendJson(exchange, 200, "{\"id\":\"" + childId + "\"}");
+            }
+        } else if ("GET".equals(method) && (matcher = ANNOTATIONS_PATTERN.matcher(path)).matches()) {
+            sendEntityOr404(exchange, annotationsById.get(matcher.group(1)));
+        } else if ("GET".equals(method) && (matcher = STS_PATTERN.matcher(path)).matches()) {
+            sendEntityOr404(exchange, stsCredentialsById.get(matcher.group(1)));
+        } else if ("POST".equals(method) && (matcher = QUERY_START_PATTERN.matcher(path)).matches()) {
+            String token = UUID.randomUUID().toString();
+            remainingPollsByToken.put(token, new AtomicInteger(pollsBeforeReady.get()));
+            sendJson(exchange, 201, "{\"token\":\"" + token + "\"}");
+        } else if ("GET".equals(method) && (matcher = QUERY_GET_PATTERN.matcher(path)).matches()) {
+            handleQueryGet(exchange, matcher.group(1), matcher.group(2));
+        } else if ("DELETE".equals(method) && (matcher = TEAM_PATTERN.matcher(path)).matches()) {
+            exchange.sendResponseHeaders(200, -1);
+        } else if ("DELETE".equals(method) && (matcher = ENTITY_PATTERN.matcher(path)).matches()) {
+            deleteEntity(matcher.group(1));
+            exchange.sendResponseHeaders(200, -1);
+        } else {
+            sendError(exchange, 404, "Synapse stand-in doesn't support " + method + " " + path);
+        }
+    }
+
+    private void handleQueryGet(HttpExchange exchange, String tableId, String token) throws Exception {
+        AtomicInteger remainingPolls = remainingPollsByToken.get(token);
+        if (remainingPolls == null) {
+            sendError(exchange, 404, "Unknown job " + token);
+            return;
+        }
+
+        if (remainingPolls.getAndDecrement() > 0) {
+            AsynchronousJobStatus status = new AsynchronousJobStatus();
+            status.setJobId(token);
+            status.setJobState(AsynchJobState.PROCESSING);
+            sendJson(exchange, 202, EntityFactory.createJSONStringForEntity(status));
+            return;
+        }
+
+        remainingPollsByToken.remove(token);
+        QueryResultBundle result = queryResultsByTableId.get(tableId);
+        if (result == null) {
+            // Empty result.
+            result = new QueryResultBundle();
+            result.setQueryCount(0L);
+        }
+        sendJson(exchange, 200, EntityFactory.createJSONStringForEntity(result));
+    }
+
+    // Deleting an entity removes it from its parent, and removes its annotations.
+    private void deleteEntity(String entityId) {
+        childIdsByParentAndName.values().removeIf(entityId::equals);
+        annotationsById.remove(entityId);
+    }
+
+    private static String readBody(HttpExchange exchange) throws IOException {
+        try (InputStream bodyStream = exchange.getRequestBody()) {
+            return new String(IOUtils.toByteArray(bodyStream), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static void sendEntityOr404(HttpExchange exchange, JSONEntity entity) throws Exception {
+        if (entity == null) {
+            sendError(exchange, 404, "Entity not found");
+        } else {
+            sendJson(exchange, 200, EntityFactory.createJSONStringForEntity(entity));
+        }
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String reason) throws IOException {
+        Map<String, String> errorMap = ImmutableMap.of("reason", reason != null ? reason : "error");
+        sendJson(exchange, status, DefaultObjectMapper.INSTANCE.writeValueAsString(errorMap));
+    }
+
+    private static void sendJson(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream responseStream = exchange.getResponseBody()) {
+            responseStream.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package org.sagebionetworks.bridge.exporter.integration;
+
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+import javax.net.ssl.SSLContext;
+
+import com.amazonaws.auth.AWSCredentials;
+import com.amazonaws.auth.AWSCredentialsProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Process-wide registry of service clients. Clients are created lazily on first use and shared by all test classes,
+ * so that connection pools stay alive across the suite instead of being rebuilt in every @BeforeClass. Clients are
+ * keyed by service and credentials (or config), so tests with different credentials still get their own clients.
+ */
+public class TestClients {
+    private static final Logger LOG = LoggerFactory.getLogger(TestClients.class);
+
+    private static final ConcurrentMap<String, Object> CLIENTS_BY_KEY = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, Boolean> WARMED_HOSTS = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the client for the given key, creating it with the given factory if it doesn't exist yet. The factory
+     * is called at most once per key, even if multiple threads ask for the same client at the same time.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T getOrCreate(String service, String key, Supplier<T> factory) {
+        return (T) CLIENTS_BY_KEY.computeIfAbsent(service + ':' + key, k -> {
+            LOG.info("Creating shared " + service + " client");
+            return factory.get();
+        });
+    }
+
+    /** Registry key for a set of AWS credentials. The secret key is hashed so it doesn't end up in the key. */
+    public static String keyForCredentials(AWSCredentialsProvider awsCredentialsProvider) {
+        AWSCredentials credentials = awsCredentialsProvider.getCredentials();
+        return credentials.getAWSAccessKeyId() + ':' + credentials.getAWSSecretKey().hashCode();
+    }
+
+    /**
+     * Pre-warms DNS and the default TLS context for the given endpoint, in the background, the first time we see
+     * that host. This takes the host lookup and the TLS provider initialization out of the first real request.
+     */
+    public static void prewarm(String endpoint) {
+        String host = endpoint.contains("://") ? URI.create(endpoint).getHost() : endpoint;
+        if (host == null || WARMED_HOSTS.putIfAbsent(host, Boolean.TRUE) != null) {
+            return;
+        }
+
+        Thread warmThread = new Thread(() -> {
+            try {
+                InetAddress.getAllByName(host);
+                SSLContext.getDefault();
+            } catch (UnknownHostException | NoSuchAlgorithmException ex) {
+                // Pre-warming is best effort. The real request will surface any real errors.
+                LOG.warn("Error pre-warming " + host, ex);
+            }
+        }, "prewarm-" + host);
+        warmThread.setDaemon(true);
+        warmThread.start();
+    }
+}
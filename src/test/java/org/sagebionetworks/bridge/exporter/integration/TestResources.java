@@ -0,0 +1,71 @@
+package org.sagebionetworks.bridge.exporter.integration;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.RandomStringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hands out resources to tests so they can run in parallel without stepping on each other. Resources we can make
+ * up (report IDs, schedule names) are made unique per run. Resources that only exist once on the server and are used
+ * by more than one class (a study's schedule) are leased exclusively, so only one test can hold them at a time.
+ */
+public class TestResources {
+    private static final Logger LOG = LoggerFactory.getLogger(TestResources.class);
+
+    // Tests that hold a lease should finish well within this. If we wait longer than this, something is stuck.
+    private static final long LEASE_TIMEOUT_MINUTES = 10;
+
+    private static final String RUN_ID = RandomStringUtils.randomAlphabetic(4);
+    private static final AtomicLong COUNTER = new AtomicLong();
+    private static final ConcurrentMap<String, Semaphore> LEASES_BY_KEY = new ConcurrentHashMap<>();
+
+    /** Returns a name with the given prefix that is unique within this run and unlikely to collide across runs. */
+    public static String uniqueName(String prefix) {
+        return prefix + '-' + RUN_ID + '-' + COUNTER.incrementAndGet();
+    }
+
+    /** Exclusively leases the schedule for the given study. Each study can only have one schedule. */
+    public static Lease leaseStudySchedule(String studyId) throws InterruptedException {
+        return lease("schedule:" + studyId);
+    }
+
+    /**
+     * Exclusively leases the given resource key, blocking until any other test holding the lease releases it. Leases
+     * are not tied to a thread, so they can be acquired in @BeforeMethod and released in @AfterMethod.
+     */
+    public static Lease lease(String resourceKey) throws InterruptedException {
+        Semaphore semaphore = LEASES_BY_KEY.computeIfAbsent(resourceKey, k -> new Semaphore(1, true));
+        if (!semaphore.tryAcquire(LEASE_TIMEOUT_MINUTES, TimeUnit.MINUTES)) {
+            throw new IllegalStateException("Timed out waiting for lease on " + resourceKey);
+        }
+        LOG.debug("Leased " + resourceKey);
+        return new Lease(resourceKey, semaphore);
+    }
+
+    /** An exclusive lease on a resource. Closing the lease releases it. Closing more than once is a no-op. */
+    public static class Lease implements AutoCloseable {
+        private final String resourceKey;
+        private final Semaphore semaphore;
+        private boolean released = false;
+
+        private Lease(String resourceKey, Semaphore semaphore) {
+            this.resourceKey = resourceKey;
+            this.semaphore = semaphore;
+        }
+
+        @Override
+        public synchronized void close() {
+            if (!released) {
+                released = true;
+                semaphore.release();
+                LOG.debug("Released " + resourceKey);
+            }
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package org.sagebionetworks.bridge.exporter.integration;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.sagebionetworks.bridge.rest.api.ParticipantsApi;
+import org.sagebionetworks.bridge.rest.model.SharingScope;
+import org.sagebionetworks.bridge.rest.model.StudyParticipant;
+import org.sagebionetworks.bridge.user.TestUser;
+import org.sagebionetworks.bridge.user.TestUserHelper;
+
+/**
+ * Pool of pre-created, signed-in, consented test users. Creating and deleting an account is several round trips, so
+ * instead of doing that in every @BeforeMethod and @AfterMethod, we create a batch of users in parallel at the start
+ * of the suite, hand them out to tests, reset them when they're returned, and delete them all at the end of the suite.
+ *
+ * Users are reset to no_sharing with no data groups when they are returned. History can't be reset: scheduled
+ * activities, adherence, uploads, and participant versions (a new one every time sharing is turned on) all stay with
+ * the user. So acquire() only ever returns a user no test has used. Tests that don't look at any of that history can
+ * call acquireAllowingReuse() instead, which prefers users an earlier test has returned.
+ */
+public class TestUserPool {
+    private static final Logger LOG = LoggerFactory.getLogger(TestUserPool.class);
+
+    private static final String CONFIG_KEY_POOL_SIZE = "user.pool.size";
+    private static final int DEFAULT_POOL_SIZE = 4;
+    private static final int MAX_THREADS = 8;
+
+    private static final TestUserPool CONSENTED_POOL = new TestUserPool();
+
+    static {
+        // Safety net, in case the suite listener didn't run (eg, running a single test from the IDE).
+        Runtime.getRuntime().addShutdownHook(new Thread(TestUserPool::shutdownAll, "TestUserPool-shutdown"));
+    }
+
+    // Idle users that no test has used yet, and idle users that have been used and reset.
+    private final BlockingQueue<TestUser> freshUsers = new LinkedBlockingQueue<>();
+    private final BlockingQueue<TestUser> reusedUsers = new LinkedBlockingQueue<>();
+    private final Set<TestUser> allUsers = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+    private TestUserPool() {
+    }
+
+    /** Pool of consented users. */
+    public static TestUserPool consented() {
+        return CONSENTED_POOL;
+    }
+
+    /** Fills the pool to the configured size. Called at the start of the suite. */
+    public static void fillAll() throws Exception {
+        String poolSizeStr = TestUtils.loadConfig().get(CONFIG_KEY_POOL_SIZE);
+        int poolSize = poolSizeStr != null ? Integer.parseInt(poolSizeStr) : DEFAULT_POOL_SIZE;
+        CONSENTED_POOL.fill(poolSize);
+    }
+
+    /** Deletes all pooled users. Called at the end of the suite. */
+    public static void shutdownAll() {
+        CONSENTED_POOL.shutdown();
+    }
+
+    /** Creates the given number of users in parallel and adds them to the pool. */
+    public void fill(int count) throws Exception {
+        if (count <= 0) {
+            return;
+        }
+
+        ExecutorService executorService = Executors.newFixedThreadPool(Math.min(count, MAX_THREADS));
+        try {
+            List<Future<TestUser>> futureList = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                futureList.add(executorService.submit(this::createUser));
+            }
+            for (Future<TestUser> oneFuture : futureList) {
+                freshUsers.add(oneFuture.get());
+            }
+        } finally {
+            executorService.shutdown();
+        }
+        LOG.info("Filled user pool with " + count + " users");
+    }
+
+    /** Takes a user that no test has used. If there are none left, this creates a new user, which joins the pool. */
+    public TestUser acquire() throws IOException {
+        TestUser user = freshUsers.poll();
+        if (user == null) {
+            user = createUser();
+        }
+        return user;
+    }
+
+    /**
+     * Takes a user from the pool, which may have been used by an earlier test. Only for tests that don't depend on
+     * the user's history (see class doc). Reused users are handed out first, to save fresh users for acquire(). If the
+     * pool is empty, this creates a new user, which joins the pool.
+     */
+    public TestUser acquireAllowingReuse() throws IOException {
+        TestUser user = reusedUsers.poll();
+        if (user == null) {
+            user = freshUsers.poll();
+        }
+        if (user == null) {
+            user = createUser();
+        }
+        return user;
+    }
+
+    /**
+     * Returns a user to the pool, after resetting it. If the user can't be reset, it is deleted instead, so the next
+     * test doesn't get a user in an unknown state.
+     */
+    public void release(TestUser user) {
+        try {
+            reset(user);
+            reusedUsers.add(user);
+        } catch (Exception ex) {
+            LOG.warn("Error resetting pooled user " + user.getUserId() + ", deleting instead", ex);
+            discard(user);
+        }
+    }
+
+    /** Removes a user from the pool and deletes it. Use this if the test deleted the user or left it unusable. */
+    public void discard(TestUser user) {
+        allUsers.remove(user);
+        freshUsers.remove(user);
+        reusedUsers.remove(user);
+        deleteQuietly(user);
+    }
+
+    /** Deletes every user this pool created, in parallel. */
+    public void shutdown() {
+        List<TestUser> userList = new ArrayList<>(allUsers);
+        allUsers.clear();
+        freshUsers.clear();
+        reusedUsers.clear();
+        if (userList.isEmpty()) {
+            return;
+        }
+
+        ExecutorService executorService = Executors.newFixedThreadPool(Math.min(userList.size(), MAX_THREADS));
+        for (TestUser oneUser : userList) {
+            executorService.execute(() -> deleteQuietly(oneUser));
+        }
+        executorService.shutdown();
+        try {
+            executorService.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        LOG.info("Deleted " + userList.size() + " pooled users");
+    }
+
+    private TestUser createUser() throws IOException {
+        TestUser user = TestUserHelper.createAndSignInUser(TestUserPool.class, true);
+        allUsers.add(user);
+        return user;
+    }
+
+    // Resets the user's sharing scope and data groups to those of a newly created user. History stays (see class doc).
+    private void reset(TestUser user) throws IOException {
+        ParticipantsApi participantsApi = user.getClient(ParticipantsApi.class);
+        StudyParticipant participant = participantsApi.getUsersParticipantRecord(false).execute().body();
+        if (participant.getSharingScope() != SharingScope.NO_SHARING || (participant.getDataGroups() != null &&
+                !participant.getDataGroups().isEmpty())) {
+            participant.setSharingScope(SharingScope.NO_SHARING);
+            participant.setDataGroups(new ArrayList<>());
+            participantsApi.updateUsersParticipantRecord(participant).execute();
+        }
+    }
+
+    private static void deleteQuietly(TestUser user) {
+        try {
+            user.signOutAndDeleteUser();
+        } catch (Exception ex) {
+            LOG.warn("Error deleting pooled user " + user.getUserId(), ex);
+        }
+    }
+}
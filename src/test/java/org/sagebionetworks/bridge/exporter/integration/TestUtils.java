@@ -1,12 +1,14 @@
 package org.sagebionetworks.bridge.exporter.integration;
 
-import static org.testng.Assert.assertTrue;
-
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.Iterator;
 import java.util.Locale;
 
@@ -14,11 +16,13 @@ import com.amazonaws.auth.AWSCredentialsProvider;
 import com.amazonaws.auth.AWSStaticCredentialsProvider;
 import com.amazonaws.auth.BasicAWSCredentials;
 import com.amazonaws.regions.Regions;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClientBuilder;
 import com.amazonaws.services.dynamodbv2.document.DynamoDB;
 import com.amazonaws.services.dynamodbv2.document.Item;
 import com.amazonaws.services.dynamodbv2.document.Table;
 import com.amazonaws.services.dynamodbv2.document.spec.QuerySpec;
+import com.amazonaws.services.s3.AmazonS3Client;
 import com.amazonaws.services.sqs.AmazonSQSClient;
 import org.joda.time.DateTimeZone;
 import org.sagebionetworks.client.SynapseClient;
@@ -28,8 +32,6 @@ import org.sagebionetworks.bridge.config.Config;
 import org.sagebionetworks.bridge.config.PropertiesConfig;
 import org.sagebionetworks.bridge.rest.RestUtils;
 import org.sagebionetworks.bridge.rest.api.ForConsentedUsersApi;
-import org.sagebionetworks.bridge.rest.api.UploadSchemasApi;
-import org.sagebionetworks.bridge.rest.exceptions.EntityNotFoundException;
 import org.sagebionetworks.bridge.rest.model.ClientInfo;
 import org.sagebionetworks.bridge.rest.model.UploadFieldDefinition;
 import org.sagebionetworks.bridge.rest.model.UploadFieldType;
@@ -38,6 +40,7 @@ import org.sagebionetworks.bridge.rest.model.UploadSchema;
 import org.sagebionetworks.bridge.rest.model.UploadSchemaType;
 import org.sagebionetworks.bridge.rest.model.UploadSession;
 import org.sagebionetworks.bridge.rest.model.UploadValidationStatus;
+import org.sagebionetworks.bridge.s3.S3Helper;
 import org.sagebionetworks.bridge.sqs.SqsHelper;
 import org.sagebionetworks.bridge.user.TestUser;
 import org.sagebionetworks.bridge.user.TestUserHelper;
@@ -47,14 +50,21 @@ public class TestUtils {
     public static final String LARGE_TEXT_ATTACHMENT_SCHEMA_ID = "large-text-attachment-test";
     public static final long LARGE_TEXT_ATTACHMENT_SCHEMA_REV = 1;
     public static final DateTimeZone LOCAL_TIME_ZONE = DateTimeZone.forID("America/Los_Angeles");
-    private static final int MAX_POLL_ITERATIONS = 6;
-    private static final long POLL_DELAY_MILLIS = 5000;
+    private static final String CONFIG_KEY_WORKER_COMPLETION_DEADLINE_MILLIS = "worker.completion.deadline.millis";
+
+    private static final String CONFIG_KEY_SYNAPSE_STANDIN_LATENCY_MILLIS = "synapse.standin.latency.millis";
+    private static final String SYNAPSE_ENDPOINT_LOCAL = "local";
+
+    private static final String DDB_ENDPOINT = "dynamodb.us-east-1.amazonaws.com";
+    private static final String S3_ENDPOINT = "s3.amazonaws.com";
+    private static final String SQS_ENDPOINT = "sqs.us-east-1.amazonaws.com";
 
     private static final String CONFIG_FILE = "BridgeWorker-test.conf";
     private static final String DEFAULT_CONFIG_FILE = CONFIG_FILE;
     private static final String USER_CONFIG_FILE = System.getProperty("user.home") + "/" + CONFIG_FILE;
 
     private static Config bridgeConfig;
+    private static SynapseStandInServer synapseStandInServer;
 
     public static Config loadConfig() throws IOException {
         if (bridgeConfig != null) {
@@ -66,19 +76,33 @@ public class TestUtils {
         clientInfo.setAppName("Worker Integ Tests");
         clientInfo.setAppVersion(1);
 
-        // bridge config
+        bridgeConfig = readConfig();
+        return bridgeConfig;
+    }
+
+    // Reads the config files, without caching. loadConfig() should be used everywhere else. Package-scoped so the
+    // benchmarks module can measure it.
+    static Config readConfig() throws IOException {
+        URL defaultConfigUrl = WorkerTest.class.getClassLoader().getResource(DEFAULT_CONFIG_FILE);
+        Path defaultConfigPath;
         //noinspection ConstantConditions
-        String defaultConfig = WorkerTest.class.getClassLoader().getResource(DEFAULT_CONFIG_FILE).getPath();
-        Path defaultConfigPath = Paths.get(defaultConfig);
+        if ("file".equals(defaultConfigUrl.getProtocol())) {
+            defaultConfigPath = Paths.get(defaultConfigUrl.getPath());
+        } else {
+            // When running from a jar (eg, the benchmarks), the default config isn't a file, so copy it out first.
+            defaultConfigPath = Files.createTempFile("BridgeWorker-test", ".conf");
+            defaultConfigPath.toFile().deleteOnExit();
+            try (InputStream defaultConfigStream = defaultConfigUrl.openStream()) {
+                Files.copy(defaultConfigStream, defaultConfigPath, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
         Path localConfigPath = Paths.get(USER_CONFIG_FILE);
 
         if (Files.exists(localConfigPath)) {
-            bridgeConfig = new PropertiesConfig(defaultConfigPath, localConfigPath);
+            return new PropertiesConfig(defaultConfigPath, localConfigPath);
         } else {
-            bridgeConfig = new PropertiesConfig(defaultConfigPath);
+            return new PropertiesConfig(defaultConfigPath);
         }
-
-        return bridgeConfig;
     }
 
     public static AWSCredentialsProvider getAwsCredentialsForConfig(Config bridgeConfig) {
@@ -88,58 +112,148 @@ public class TestUtils {
     }
 
     public static DynamoDB getDdbClient(AWSCredentialsProvider awsCredentialsProvider) {
-        return new DynamoDB(AmazonDynamoDBClientBuilder.standard().withRegion(Regions.US_EAST_1)
-                .withCredentials(awsCredentialsProvider).build());
+        if (isLocalBackend()) {
+            return TestClients.getOrCreate("ddb", LocalBackends.BACKEND_MODE_LOCAL, () -> {
+                try {
+                    return new DynamoDB(WorkerTimings.instrument(AmazonDynamoDB.class, LocalBackends.getDdbClient(),
+                            "ddb"));
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            });
+        }
+        return TestClients.getOrCreate("ddb", TestClients.keyForCredentials(awsCredentialsProvider), () -> {
+            TestClients.prewarm(DDB_ENDPOINT);
+            AmazonDynamoDB ddbClient = AmazonDynamoDBClientBuilder.standard().withRegion(Regions.US_EAST_1)
+                    .withCredentials(awsCredentialsProvider).build();
+            return new DynamoDB(WorkerTimings.instrument(AmazonDynamoDB.class, ddbClient, "ddb"));
+        });
     }
 
     public static Table getDdbTable(Config bridgeConfig, DynamoDB ddbClient, String shortName) {
-        return ddbClient.getTable(bridgeConfig.getEnvironment().name().toLowerCase() + '-' +
-                bridgeConfig.getUser() + '-' + shortName);
+        return ddbClient.getTable(getDdbTableName(bridgeConfig, shortName));
     }
 
-    public static void ensureSchemas(TestUser developer) throws IOException {
+    public static String getDdbTableName(Config bridgeConfig, String shortName) {
+        return bridgeConfig.getEnvironment().name().toLowerCase() + '-' + bridgeConfig.getUser() + '-' + shortName;
+    }
+
+    public static void ensureSchemas(TestUser developer) throws Exception {
         // ensure schemas exist, so we have something to upload against
-        UploadSchemasApi uploadSchemasApi = developer.getClient(UploadSchemasApi.class);
+        UploadFieldDefinition largeTextFieldDef = new UploadFieldDefinition()
+                .name(LARGE_TEXT_ATTACHMENT_FIELD_NAME).type(UploadFieldType.LARGE_TEXT_ATTACHMENT);
+        UploadSchema largeTextAttachmentTestSchema = new UploadSchema().schemaId(LARGE_TEXT_ATTACHMENT_SCHEMA_ID)
+                .revision(LARGE_TEXT_ATTACHMENT_SCHEMA_REV).name("Large Text Attachment Test")
+                .schemaType(UploadSchemaType.IOS_DATA).addFieldDefinitionsItem(largeTextFieldDef);
+        SuiteFixtures.get().ensureUploadSchema(developer, largeTextAttachmentTestSchema);
+    }
 
-        // large-text-attachment-test schema
-        UploadSchema largeTextAttachmentTestSchema = null;
-        try {
-            largeTextAttachmentTestSchema = uploadSchemasApi.getMostRecentUploadSchema(LARGE_TEXT_ATTACHMENT_SCHEMA_ID)
-                    .execute().body();
-        } catch (EntityNotFoundException ex) {
-            // no-op
+    public static SqsHelper getSqsHelper(AWSCredentialsProvider awsCredentialsProvider) {
+        // Get the client outside of getOrCreate(), since the registry can't be updated from inside its own factory.
+        AmazonSQSClient sqsClient = getSqsClient(awsCredentialsProvider);
+        String key = isLocalBackend() ? LocalBackends.BACKEND_MODE_LOCAL :
+                TestClients.keyForCredentials(awsCredentialsProvider);
+        return TestClients.getOrCreate("sqs", key, () -> {
+            SqsHelper sqsHelper = new SqsHelper();
+            sqsHelper.setSqsClient(sqsClient);
+            return sqsHelper;
+        });
+    }
+
+    /** Raw SQS client, for calls SqsHelper doesn't have, like SendMessageBatch. */
+    public static AmazonSQSClient getSqsClient(AWSCredentialsProvider awsCredentialsProvider) {
+        if (isLocalBackend()) {
+            try {
+                return LocalBackends.getSqsClient();
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
         }
-        if (largeTextAttachmentTestSchema == null) {
-            UploadFieldDefinition largeTextFieldDef = new UploadFieldDefinition()
-                    .name(LARGE_TEXT_ATTACHMENT_FIELD_NAME).type(UploadFieldType.LARGE_TEXT_ATTACHMENT);
-            largeTextAttachmentTestSchema = new UploadSchema().schemaId(LARGE_TEXT_ATTACHMENT_SCHEMA_ID)
-                    .revision(LARGE_TEXT_ATTACHMENT_SCHEMA_REV).name("Large Text Attachment Test")
-                    .schemaType(UploadSchemaType.IOS_DATA).addFieldDefinitionsItem(largeTextFieldDef);
-            uploadSchemasApi.createUploadSchema(largeTextAttachmentTestSchema).execute();
+        return TestClients.getOrCreate("sqs-client", TestClients.keyForCredentials(awsCredentialsProvider), () -> {
+            TestClients.prewarm(SQS_ENDPOINT);
+            //noinspection deprecation
+            return new AmazonSQSClient(awsCredentialsProvider);
+        });
+    }
+
+    public static S3Helper getS3Helper(AWSCredentialsProvider awsCredentialsProvider) {
+        // Get the client outside of getOrCreate(), since the registry can't be updated from inside its own factory.
+        AmazonS3Client s3Client = getS3Client(awsCredentialsProvider);
+        String key = isLocalBackend() ? LocalBackends.BACKEND_MODE_LOCAL :
+                TestClients.keyForCredentials(awsCredentialsProvider);
+        return TestClients.getOrCreate("s3", key, () -> {
+            S3Helper s3Helper = new S3Helper();
+            s3Helper.setS3Client(s3Client);
+            return s3Helper;
+        });
+    }
+
+    /** Raw S3 client, for calls S3Helper doesn't have, like multipart uploads. */
+    public static AmazonS3Client getS3Client(AWSCredentialsProvider awsCredentialsProvider) {
+        if (isLocalBackend()) {
+            return LocalBackends.getS3Client();
         }
+        return TestClients.getOrCreate("s3-client", TestClients.keyForCredentials(awsCredentialsProvider), () -> {
+            TestClients.prewarm(S3_ENDPOINT);
+            //noinspection deprecation
+            return new AmazonS3Client(awsCredentialsProvider);
+        });
     }
 
-    public static SqsHelper getSqsHelper(AWSCredentialsProvider awsCredentialsProvider) {
-        SqsHelper sqsHelper = new SqsHelper();
-        //noinspection deprecation
-        sqsHelper.setSqsClient(new AmazonSQSClient(awsCredentialsProvider));
-        return sqsHelper;
+    // True if the config selects in-memory stand-ins for SQS, DynamoDB, and S3. See LocalBackends.
+    private static boolean isLocalBackend() {
+        try {
+            return LocalBackends.isEnabled(loadConfig());
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
     }
 
     public static SynapseClient getSynapseClient(Config config) {
-        SynapseClient synapseClient = new SynapseClientImpl();
-        synapseClient.setUsername(config.get("synapse.user"));
-        synapseClient.setBearerAuthorizationToken(config.get("synapse.access.token"));
+        // Based on config, we either talk to Synapse Dev (local/dev/staging), Synapse Prod, or the local stand-in.
+        String configuredEndpoint = config.get("synapse.endpoint");
+        String synapseEndpoint = SYNAPSE_ENDPOINT_LOCAL.equals(configuredEndpoint) ?
+                getSynapseStandInServer().getEndpoint() : configuredEndpoint;
+        String synapseUser = config.get("synapse.user");
+        String accessToken = config.get("synapse.access.token");
+        String key = synapseEndpoint + ':' + synapseUser + ':' + String.valueOf(accessToken).hashCode();
+        return TestClients.getOrCreate("synapse", key, () -> {
+            TestClients.prewarm(synapseEndpoint);
+            return WorkerTimings.instrument(SynapseClient.class, createSynapseClient(synapseEndpoint, synapseUser,
+                    accessToken), "synapse");
+        });
+    }
 
-        // Based on config, we either talk to Synapse Dev (local/dev/staging) or Synapse Prod.
-        String synapseEndpoint = config.get("synapse.endpoint");
+    // Creates a new, uncached Synapse client for the given endpoint (in the same form as synapse.endpoint).
+    static SynapseClient createSynapseClient(String synapseEndpoint, String synapseUser, String accessToken) {
+        SynapseClient synapseClient = new SynapseClientImpl();
+        synapseClient.setUsername(synapseUser);
+        synapseClient.setBearerAuthorizationToken(accessToken);
         synapseClient.setAuthEndpoint(synapseEndpoint + "auth/v1");
         synapseClient.setFileEndpoint(synapseEndpoint + "file/v1");
         synapseClient.setRepositoryEndpoint(synapseEndpoint + "repo/v1");
-
         return synapseClient;
     }
 
+    /**
+     * Returns the Synapse stand-in server, starting it if needed. Used when synapse.endpoint is "local". Latency is
+     * configured with synapse.standin.latency.millis. Tests that run against the stand-in register fixtures on it.
+     */
+    public static synchronized SynapseStandInServer getSynapseStandInServer() {
+        if (synapseStandInServer == null) {
+            try {
+                synapseStandInServer = new SynapseStandInServer();
+                String latencyMillis = loadConfig().get(CONFIG_KEY_SYNAPSE_STANDIN_LATENCY_MILLIS);
+                if (latencyMillis != null) {
+                    synapseStandInServer.setLatencyMillis(Long.parseLong(latencyMillis));
+                }
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+        return synapseStandInServer;
+    }
+
     public static UploadValidationStatus upload(TestUser user) throws IOException {
         // Get file from resources.
         String envName = user.getClientManager().getConfig().getEnvironment().name().toLowerCase(Locale.ENGLISH);
@@ -170,15 +284,19 @@ public class TestUtils {
     }
 
     // Polls the worker log until the worker is finished, as determined by a new timestamp after the one specified.
-    public static void pollWorkerLog(Table workerLogTable, String workerId, long previousFinishTime) throws Exception {
-        long finishTime = previousFinishTime;
-        for (int i = 0; i < MAX_POLL_ITERATIONS; i++) {
-            Thread.sleep(POLL_DELAY_MILLIS);
-            finishTime = getWorkerLastFinishedTime(workerLogTable, workerId);
-            if (finishTime > previousFinishTime) {
-                break;
-            }
+    // Records the finish time on the request's round trip.
+    public static void pollWorkerLog(Table workerLogTable, String workerId, long previousFinishTime,
+            WorkerTimings.RoundTrip roundTrip) throws Exception {
+        long finishTime = getWorkerCompletionWaiter(workerLogTable).assertFinishAfter(workerId, previousFinishTime);
+        roundTrip.markWorkerFinished(finishTime);
+    }
+
+    public static WorkerCompletionWaiter getWorkerCompletionWaiter(Table workerLogTable) throws IOException {
+        WorkerCompletionWaiter waiter = WorkerCompletionWaiter.forWorkerLog(workerLogTable);
+        String deadlineMillis = loadConfig().get(CONFIG_KEY_WORKER_COMPLETION_DEADLINE_MILLIS);
+        if (deadlineMillis != null) {
+            waiter.withDeadlineMillis(Long.parseLong(deadlineMillis));
         }
-        assertTrue(finishTime > previousFinishTime, "Worker log has updated finish time");
+        return waiter;
     }
 }
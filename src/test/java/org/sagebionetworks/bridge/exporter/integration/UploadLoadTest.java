@@ -0,0 +1,302 @@
+package org.sagebionetworks.bridge.exporter.integration;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import org.sagebionetworks.bridge.config.Config;
+import org.sagebionetworks.bridge.rest.RestUtils;
+import org.sagebionetworks.bridge.rest.api.ForAdminsApi;
+import org.sagebionetworks.bridge.rest.api.ForConsentedUsersApi;
+import org.sagebionetworks.bridge.rest.api.ParticipantsApi;
+import org.sagebionetworks.bridge.rest.exceptions.EntityNotFoundException;
+import org.sagebionetworks.bridge.rest.model.App;
+import org.sagebionetworks.bridge.rest.model.HealthDataRecordEx3;
+import org.sagebionetworks.bridge.rest.model.Role;
+import org.sagebionetworks.bridge.rest.model.SharingScope;
+import org.sagebionetworks.bridge.rest.model.StudyParticipant;
+import org.sagebionetworks.bridge.rest.model.UploadRequest;
+import org.sagebionetworks.bridge.rest.model.UploadSession;
+import org.sagebionetworks.bridge.user.TestUser;
+import org.sagebionetworks.bridge.user.TestUserHelper;
+
+/**
+ * Load test for the upload to Exporter 3 pipeline. Starts uploads from K simulated participants on a fixed schedule
+ * at a target total rate, and records end-to-end latency from each upload's intended start until Bridge reports the
+ * record as exported to Synapse. Latency percentiles, throughput, and the achieved versus target upload rate are
+ * logged, and the full HDR histogram is written to target/upload-load-report.hgrm.
+ *
+ * The load is open loop: an upload starts on schedule even if earlier uploads haven't finished, so a slow server gets
+ * more load, not less. In a closed loop (each participant waiting for its last upload before starting the next), the
+ * load backs off whenever the server slows down, and the histogram misses the delays (coordinated omission).
+ *
+ * Only runs with the load profile (mvn test -Pload). Settings come from the load.* keys in the config.
+ */
+@Test(groups = "load")
+public class UploadLoadTest {
+    private static final Logger LOG = LoggerFactory.getLogger(UploadLoadTest.class);
+
+    private static final String CONTENT_TYPE_TEXT_PLAIN = "text/plain";
+    private static final long EXPORT_POLL_INITIAL_DELAY_MILLIS = 250;
+    private static final long EXPORT_POLL_MAX_DELAY_MILLIS = 2000;
+    private static final String REPORT_FILE = "target/upload-load-report.hgrm";
+    private static final byte[] UPLOAD_CONTENT = "This is the load test upload content"
+            .getBytes(StandardCharsets.UTF_8);
+
+    private static TestUser admin;
+    private static int numParticipants;
+    private static int uploadsPerParticipant;
+    private static double uploadsPerSecond;
+    private static long exportTimeoutMillis;
+    private static File uploadFile;
+
+    // State for one run of the test.
+    private Histogram latencyHistogram;
+    private AtomicInteger numTimeouts;
+    private AtomicInteger numErrors;
+    private AtomicReference<Exception> firstError;
+    private AtomicLong lastUploadStartNanos;
+    private CountDownLatch doneLatch;
+    private ScheduledExecutorService pollScheduler;
+
+    @BeforeClass
+    public static void beforeClass() throws Exception {
+        Config config = TestUtils.loadConfig();
+        numParticipants = Integer.parseInt(config.get("load.participants"));
+        uploadsPerParticipant = Integer.parseInt(config.get("load.uploads.per.participant"));
+        uploadsPerSecond = Double.parseDouble(config.get("load.uploads.per.second"));
+        exportTimeoutMillis = Long.parseLong(config.get("load.export.timeout.millis"));
+
+        // Exporter 3 needs to be enabled for uploads to be exported. If it isn't, init it. Exporter3Test wipes and
+        // re-creates these resources, so we don't need to clean them up here.
+        admin = TestUserHelper.createAndSignInUser(UploadLoadTest.class, false, Role.ADMIN, Role.DEVELOPER,
+                Role.WORKER);
+        ForAdminsApi adminsApi = admin.getClient(ForAdminsApi.class);
+        App app = adminsApi.getUsersApp().execute().body();
+        if (app.getExporter3Configuration() == null) {
+            adminsApi.initExporter3().execute();
+        }
+
+        uploadFile = File.createTempFile("load", ".txt");
+        Files.write(UPLOAD_CONTENT, uploadFile);
+    }
+
+    @AfterClass
+    public static void afterClass() throws Exception {
+        if (admin != null) {
+            admin.signOutAndDeleteUser();
+        }
+        if (uploadFile != null) {
+            //noinspection ResultOfMethodCallIgnored
+            uploadFile.delete();
+        }
+    }
+
+    @Test
+    public void uploadToExportLatency() throws Exception {
+        // Latency in milliseconds. Auto-resizing, 3 significant digits.
+        latencyHistogram = new ConcurrentHistogram(3);
+        numTimeouts = new AtomicInteger();
+        numErrors = new AtomicInteger();
+        firstError = new AtomicReference<>();
+        lastUploadStartNanos = new AtomicLong();
+        int numUploads = numParticipants * uploadsPerParticipant;
+        doneLatch = new CountDownLatch(numUploads);
+        long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / uploadsPerSecond);
+
+        // The upload scheduler only hands uploads to the upload pool, and export polls run on their own pool, so a slow
+        // upload or poll never delays the next upload's start. Uploads that wait for a free thread still count the
+        // wait, since latency is measured from the intended start.
+        ScheduledExecutorService uploadScheduler = Executors.newSingleThreadScheduledExecutor(daemonThreadFactory(
+                "upload-scheduler"));
+        ExecutorService uploadExecutor = Executors.newFixedThreadPool(numParticipants, daemonThreadFactory(
+                "upload-%d"));
+        pollScheduler = Executors.newScheduledThreadPool(numParticipants, daemonThreadFactory("export-poll-%d"));
+
+        // Participants are created for this test (in parallel), rather than taken from the user pool. There are more of
+        // them than the pool holds, and turning sharing on leaves them with participant versions that other tests
+        // don't expect. They need sharing turned on to be exported.
+        List<TestUser> participantList = Collections.synchronizedList(new ArrayList<>());
+        long startNanos = 0;
+        boolean allDone;
+        try {
+            List<Future<?>> createFutureList = new ArrayList<>();
+            for (int i = 0; i < numParticipants; i++) {
+                createFutureList.add(uploadExecutor.submit(() -> {
+                    TestUser participant = TestUserHelper.createAndSignInUser(UploadLoadTest.class, true);
+                    participantList.add(participant);
+                    enableSharing(participant);
+                    return null;
+                }));
+            }
+            for (Future<?> oneFuture : createFutureList) {
+                oneFuture.get();
+            }
+
+            // Upload i starts at startNanos + i * interval. Participants take turns, so each uploads at an even share
+            // of the total rate.
+            startNanos = System.nanoTime();
+            for (int i = 0; i < numUploads; i++) {
+                TestUser participant = participantList.get(i % numParticipants);
+                long intendedStartNanos = startNanos + i * intervalNanos;
+                uploadScheduler.schedule(() -> uploadExecutor.execute(() -> upload(participant,
+                        intendedStartNanos)), intendedStartNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+            }
+
+            // Every upload either is exported, times out, or fails, so this only times out if something hangs.
+            long scheduleMillis = TimeUnit.NANOSECONDS.toMillis(numUploads * intervalNanos);
+            allDone = doneLatch.await(scheduleMillis + 2 * exportTimeoutMillis, TimeUnit.MILLISECONDS);
+        } finally {
+            uploadScheduler.shutdownNow();
+            uploadExecutor.shutdownNow();
+            pollScheduler.shutdownNow();
+            for (TestUser oneParticipant : participantList) {
+                try {
+                    oneParticipant.signOutAndDeleteUser();
+                } catch (Exception ex) {
+                    LOG.error("Error deleting participant " + oneParticipant.getUserId(), ex);
+                }
+            }
+        }
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+
+        // The last upload was scheduled (numUploads - 1) intervals after the first. If uploads started late, the
+        // achieved rate is lower than the target, and the test didn't apply the load it was asked to.
+        double achievedUploadsPerSecond = 0;
+        long lastStartNanos = lastUploadStartNanos.get();
+        if (numUploads > 1 && lastStartNanos > startNanos) {
+            achievedUploadsPerSecond = (numUploads - 1) * (double) TimeUnit.SECONDS.toNanos(1) /
+                    (lastStartNanos - startNanos);
+        }
+
+        report(elapsedMillis, achievedUploadsPerSecond);
+        if (firstError.get() != null) {
+            throw new AssertionError(numErrors.get() + " upload(s) failed", firstError.get());
+        }
+        assertTrue(allDone, "Uploads still running after " + elapsedMillis + "ms");
+        assertEquals(numTimeouts.get(), 0, "Uploads not exported within " + exportTimeoutMillis + "ms");
+    }
+
+    // Uploads a file as the given participant, then hands the upload to the poll scheduler to wait for the export.
+    private void upload(TestUser participant, long intendedStartNanos) {
+        lastUploadStartNanos.accumulateAndGet(System.nanoTime(), Math::max);
+        try {
+            UploadRequest uploadRequest = RestUtils.makeUploadRequestForFile(uploadFile);
+            uploadRequest.setContentType(CONTENT_TYPE_TEXT_PLAIN);
+            uploadRequest.setEncrypted(false);
+            uploadRequest.setZipped(false);
+
+            ForConsentedUsersApi usersApi = participant.getClient(ForConsentedUsersApi.class);
+            UploadSession session = usersApi.requestUploadSession(uploadRequest).execute().body();
+            RestUtils.uploadToS3(uploadFile, session.getUrl(), CONTENT_TYPE_TEXT_PLAIN);
+            usersApi.completeUploadSession(session.getId(), true, false).execute();
+
+            schedulePoll(usersApi, session.getId(), intendedStartNanos, EXPORT_POLL_INITIAL_DELAY_MILLIS);
+        } catch (Exception ex) {
+            recordError(ex);
+        }
+    }
+
+    private void schedulePoll(ForConsentedUsersApi usersApi, String uploadId, long intendedStartNanos,
+            long delayMillis) {
+        pollScheduler.schedule(() -> pollExport(usersApi, uploadId, intendedStartNanos, delayMillis), delayMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    // Checks the record once. If it's exported, records the latency from the upload's intended start. Otherwise, polls
+    // again later, until the export timeout. Backoff is capped low, so the poll interval doesn't dominate latency.
+    private void pollExport(ForConsentedUsersApi usersApi, String uploadId, long intendedStartNanos,
+            long delayMillis) {
+        try {
+            try {
+                HealthDataRecordEx3 record = usersApi.getRecordEx3ById(uploadId, "false").execute().body();
+                if (Boolean.TRUE.equals(record.isExported())) {
+                    latencyHistogram.recordValue(millisSince(intendedStartNanos));
+                    doneLatch.countDown();
+                    return;
+                }
+            } catch (EntityNotFoundException ex) {
+                // Record hasn't been created yet.
+            }
+
+            if (millisSince(intendedStartNanos) >= exportTimeoutMillis) {
+                LOG.warn("Upload " + uploadId + " not exported after " + exportTimeoutMillis + "ms");
+                numTimeouts.incrementAndGet();
+                doneLatch.countDown();
+                return;
+            }
+            schedulePoll(usersApi, uploadId, intendedStartNanos, Math.min(delayMillis * 2,
+                    EXPORT_POLL_MAX_DELAY_MILLIS));
+        } catch (Exception ex) {
+            recordError(ex);
+        }
+    }
+
+    private void recordError(Exception ex) {
+        LOG.error("Upload failed", ex);
+        numErrors.incrementAndGet();
+        firstError.compareAndSet(null, ex);
+        doneLatch.countDown();
+    }
+
+    private static long millisSince(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    private static ThreadFactory daemonThreadFactory(String nameFormat) {
+        return new ThreadFactoryBuilder().setNameFormat(nameFormat).setDaemon(true).build();
+    }
+
+    private static void enableSharing(TestUser participant) throws Exception {
+        ParticipantsApi participantsApi = participant.getClient(ParticipantsApi.class);
+        StudyParticipant studyParticipant = participantsApi.getUsersParticipantRecord(false).execute().body();
+        studyParticipant.setSharingScope(SharingScope.ALL_QUALIFIED_RESEARCHERS);
+        participantsApi.updateUsersParticipantRecord(studyParticipant).execute();
+    }
+
+    private void report(long elapsedMillis, double achievedUploadsPerSecond) throws Exception {
+        long numExported = latencyHistogram.getTotalCount();
+        double throughput = numExported * 1000.0 / elapsedMillis;
+        LOG.info(String.format("Upload load test: participants=%d, uploads=%d, exported=%d, elapsed=%dms, " +
+                        "targetRate=%.2f/s, achievedRate=%.2f/s, throughput=%.2f/s, p50=%dms, p95=%dms, p99=%dms, " +
+                        "max=%dms", numParticipants, numParticipants * uploadsPerParticipant, numExported,
+                elapsedMillis, uploadsPerSecond, achievedUploadsPerSecond, throughput,
+                latencyHistogram.getValueAtPercentile(50), latencyHistogram.getValueAtPercentile(95),
+                latencyHistogram.getValueAtPercentile(99), latencyHistogram.getMaxValue()));
+
+        File reportFile = new File(REPORT_FILE);
+        //noinspection ResultOfMethodCallIgnored
+        reportFile.getParentFile().mkdirs();
+        try (PrintStream reportStream = new PrintStream(new FileOutputStream(reportFile), false, "UTF-8")) {
+            // Values are in millis. Report them as millis.
+            latencyHistogram.outputPercentileDistribution(reportStream, 1.0);
+        }
+    }
+}
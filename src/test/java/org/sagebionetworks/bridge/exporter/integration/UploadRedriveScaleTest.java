@@ -0,0 +1,250 @@
+package org.sagebionetworks.bridge.exporter.integration;
+
+import static org.testng.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.services.dynamodbv2.document.DynamoDB;
+import com.amazonaws.services.dynamodbv2.document.Table;
+import com.amazonaws.services.s3.AmazonS3;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import org.sagebionetworks.bridge.config.Config;
+import org.sagebionetworks.bridge.rest.api.ForConsentedUsersApi;
+import org.sagebionetworks.bridge.rest.model.Role;
+import org.sagebionetworks.bridge.rest.model.SharingScope;
+import org.sagebionetworks.bridge.rest.model.StudyParticipant;
+import org.sagebionetworks.bridge.rest.model.UploadStatus;
+import org.sagebionetworks.bridge.rest.model.UploadValidationStatus;
+import org.sagebionetworks.bridge.sqs.SqsHelper;
+import org.sagebionetworks.bridge.user.TestUser;
+import org.sagebionetworks.bridge.user.TestUserHelper;
+
+/**
+ * Scale test for the Upload Redrive Worker. Generates a manifest of load.redrive.ids IDs, streamed to S3 (see
+ * RedriveManifestWriter), with load.redrive.real.uploads real uploads spread evenly through it. The rest of the IDs
+ * don't exist, but the worker still has to look up each one. Measures manifest write time and redrive throughput.
+ *
+ * Verification doesn't check every ID. The manifest is divided into load.redrive.strata equal strata by position, and
+ * load.redrive.samples.per.stratum real uploads are checked from each, so we catch the worker stopping partway
+ * through the manifest without paying for a status call per upload.
+ *
+ * Only runs with the load profile (mvn test -Pload).
+ */
+@Test(groups = "load")
+public class UploadRedriveScaleTest {
+    private static final Logger LOG = LoggerFactory.getLogger(UploadRedriveScaleTest.class);
+
+    private static final String GENERATED_ID_PREFIX = "redrive-scale-";
+    private static final int MAX_PARTICIPANTS = 4;
+    private static final String WORKER_ID = WorkerRequest.SERVICE_UPLOAD_REDRIVE;
+
+    private static Config config;
+    private static AmazonS3 s3Client;
+    private static SqsHelper sqsHelper;
+    private static String workerSqsUrl;
+    private static Table ddbWorkerLogTable;
+    private static TestUser developer;
+
+    private static long numIds;
+    private static int numRealUploads;
+    private static int numStrata;
+    private static int samplesPerStratum;
+    private static String redriveType;
+    private static long redriveTimeoutMillis;
+
+    @BeforeClass
+    public static void beforeClass() throws Exception {
+        config = TestUtils.loadConfig();
+        numIds = Long.parseLong(config.get("load.redrive.ids"));
+        numRealUploads = Integer.parseInt(config.get("load.redrive.real.uploads"));
+        numStrata = Integer.parseInt(config.get("load.redrive.strata"));
+        samplesPerStratum = Integer.parseInt(config.get("load.redrive.samples.per.stratum"));
+        redriveType = config.get("load.redrive.type");
+        redriveTimeoutMillis = Long.parseLong(config.get("load.redrive.timeout.millis"));
+
+        // Each real upload needs its own manifest position. With more real uploads than IDs, positions would collide,
+        // and the manifest would silently skip all but one of the uploads at each position.
+        if (numRealUploads > numIds) {
+            throw new IllegalStateException("load.redrive.real.uploads (" + numRealUploads +
+                    ") can't be more than load.redrive.ids (" + numIds + ")");
+        }
+
+        AWSCredentialsProvider awsCredentialsProvider = TestUtils.getAwsCredentialsForConfig(config);
+        DynamoDB ddbClient = TestUtils.getDdbClient(awsCredentialsProvider);
+        ddbWorkerLogTable = TestUtils.getDdbTable(config, ddbClient, "WorkerLog");
+        s3Client = TestUtils.getS3Client(awsCredentialsProvider);
+        workerSqsUrl = config.get("worker.request.sqs.queue.url");
+        sqsHelper = TestUtils.getSqsHelper(awsCredentialsProvider);
+
+        developer = TestUserHelper.createAndSignInUser(UploadRedriveScaleTest.class, false, Role.DEVELOPER);
+        TestUtils.ensureSchemas(developer);
+    }
+
+    @AfterClass
+    public static void afterClass() throws Exception {
+        if (developer != null) {
+            developer.signOutAndDeleteUser();
+        }
+    }
+
+    @Test
+    public void redriveGeneratedManifest() throws Exception {
+        List<TestUser> participantList = new ArrayList<>();
+        String s3Bucket = config.get("backfill.bucket");
+        String s3Key = TestResources.uniqueName("redrive-scale-test");
+        try {
+            // Upload with sharing set to ALL_QUALIFIED_RESEARCHERS, then change sharing to SPONSORS_AND_PARTNERS. The
+            // redrive picks up the new sharing scope, which is how we verify it.
+            int numParticipants = Math.min(numRealUploads, MAX_PARTICIPANTS);
+            for (int i = 0; i < numParticipants; i++) {
+                // Only the uploads made here are checked, so users other tests have used are fine.
+                TestUser participant = TestUserPool.consented().acquireAllowingReuse();
+                participantList.add(participant);
+                setSharingScope(participant, SharingScope.ALL_QUALIFIED_RESEARCHERS);
+            }
+
+            List<RealUpload> realUploadList = new ArrayList<>();
+            for (int i = 0; i < numRealUploads; i++) {
+                TestUser participant = participantList.get(i % numParticipants);
+                UploadValidationStatus status = TestUtils.upload(participant);
+                assertEquals(status.getStatus(), UploadStatus.SUCCEEDED);
+
+                String idToRedrive = "record_id".equals(redriveType) ? status.getRecord().getId() : status.getId();
+                long position = (long) ((i + 0.5) * numIds / numRealUploads);
+                realUploadList.add(new RealUpload(participant, status.getId(), idToRedrive, position));
+            }
+
+            for (TestUser oneParticipant : participantList) {
+                setSharingScope(oneParticipant, SharingScope.SPONSORS_AND_PARTNERS);
+            }
+
+            // Stream the manifest to S3.
+            long writeStartMillis = System.currentTimeMillis();
+            long numWritten = new RedriveManifestWriter(s3Client).write(s3Bucket, s3Key,
+                    new ManifestIdIterator(realUploadList));
+            long writeMillis = System.currentTimeMillis() - writeStartMillis;
+            assertEquals(numWritten, numIds);
+
+            // Redrive, and wait for the worker to finish.
+            long previousFinishTime = TestUtils.getWorkerLastFinishedTime(ddbWorkerLogTable, WORKER_ID);
+            long redriveStartMillis = System.currentTimeMillis();
+            WorkerRequest request = WorkerRequest.uploadRedrive().withS3Bucket(s3Bucket).withS3Key(s3Key)
+                    .withRedriveType(redriveType).build();
+            WorkerTimings.RoundTrip roundTrip = WorkerTimings.sendWorkerRequest(sqsHelper, workerSqsUrl, request);
+            long finishTime = WorkerCompletionWaiter.forWorkerLog(ddbWorkerLogTable)
+                    .withDeadlineMillis(redriveTimeoutMillis).assertFinishAfter(WORKER_ID, previousFinishTime);
+            roundTrip.markWorkerFinished(finishTime);
+            long redriveMillis = System.currentTimeMillis() - redriveStartMillis;
+
+            // Spot-check a stratified sample of the real uploads.
+            List<RealUpload> sampleList = sampleByStratum(realUploadList);
+            long verifyStartMillis = System.currentTimeMillis();
+            for (RealUpload oneSample : sampleList) {
+                UploadValidationStatus status = oneSample.participant.getClient(ForConsentedUsersApi.class)
+                        .getUploadStatus(oneSample.uploadId).execute().body();
+                assertEquals(status.getStatus(), UploadStatus.SUCCEEDED);
+                assertEquals(status.getRecord().getUserSharingScope(), SharingScope.SPONSORS_AND_PARTNERS,
+                        "Upload at manifest position " + oneSample.position + " wasn't redriven");
+            }
+            long verifyMillis = System.currentTimeMillis() - verifyStartMillis;
+            roundTrip.markVerified();
+
+            LOG.info(String.format("Upload redrive scale test: ids=%d, realUploads=%d, manifestWrite=%dms, " +
+                            "redrive=%dms, throughput=%.1f ids/s, verified=%d samples in %dms (%.1fms/sample)",
+                    numIds, numRealUploads, writeMillis, redriveMillis, numIds * 1000.0 / redriveMillis,
+                    sampleList.size(), verifyMillis, (double) verifyMillis / Math.max(sampleList.size(), 1)));
+        } finally {
+            s3Client.deleteObject(s3Bucket, s3Key);
+            for (TestUser oneParticipant : participantList) {
+                TestUserPool.consented().release(oneParticipant);
+            }
+        }
+    }
+
+    // Picks up to samplesPerStratum random real uploads from each stratum of the manifest.
+    private static List<RealUpload> sampleByStratum(List<RealUpload> realUploadList) {
+        List<List<RealUpload>> strataList = new ArrayList<>();
+        for (int i = 0; i < numStrata; i++) {
+            strataList.add(new ArrayList<>());
+        }
+        for (RealUpload oneRealUpload : realUploadList) {
+            int stratum = (int) (oneRealUpload.position * numStrata / numIds);
+            strataList.get(stratum).add(oneRealUpload);
+        }
+
+        List<RealUpload> sampleList = new ArrayList<>();
+        for (List<RealUpload> oneStratum : strataList) {
+            Collections.shuffle(oneStratum);
+            sampleList.addAll(oneStratum.subList(0, Math.min(samplesPerStratum, oneStratum.size())));
+        }
+        return sampleList;
+    }
+
+    private static void setSharingScope(TestUser participant, SharingScope sharingScope) throws Exception {
+        ForConsentedUsersApi userApi = participant.getClient(ForConsentedUsersApi.class);
+        StudyParticipant studyParticipant = userApi.getUsersParticipantRecord(false).execute().body();
+        studyParticipant.setSharingScope(sharingScope);
+        userApi.updateUsersParticipantRecord(studyParticipant).execute();
+    }
+
+    // A real upload, and where its ID goes in the manifest.
+    private static class RealUpload {
+        final TestUser participant;
+        final String uploadId;
+        final String idToRedrive;
+        final long position;
+
+        RealUpload(TestUser participant, String uploadId, String idToRedrive, long position) {
+            this.participant = participant;
+            this.uploadId = uploadId;
+            this.idToRedrive = idToRedrive;
+            this.position = position;
+        }
+    }
+
+    // Generates manifest IDs on the fly, with the real upload IDs at their positions. Real uploads must be in order of
+    // position.
+    private static class ManifestIdIterator implements Iterator<String> {
+        private final List<RealUpload> realUploadList;
+        private final String runPrefix = TestResources.uniqueName(GENERATED_ID_PREFIX) + '-';
+        private long position = 0;
+        private int nextRealUploadIndex = 0;
+
+        ManifestIdIterator(List<RealUpload> realUploadList) {
+            this.realUploadList = realUploadList;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return position < numIds;
+        }
+
+        @Override
+        public String next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            String id;
+            if (nextRealUploadIndex < realUploadList.size() &&
+                    realUploadList.get(nextRealUploadIndex).position == position) {
+                id = realUploadList.get(nextRealUploadIndex).idToRedrive;
+                nextRealUploadIndex++;
+            } else {
+                id = runPrefix + position;
+            }
+            position++;
+            return id;
+        }
+    }
+}
@@ -2,12 +2,12 @@ package org.sagebionetworks.bridge.exporter.integration;
 
 import static org.testng.Assert.assertEquals;
 
+import java.util.stream.Stream;
+
 import com.amazonaws.auth.AWSCredentialsProvider;
 import com.amazonaws.services.dynamodbv2.document.DynamoDB;
 import com.amazonaws.services.dynamodbv2.document.Table;
-import com.amazonaws.services.s3.AmazonS3Client;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.google.common.collect.ImmutableList;
+import com.amazonaws.services.s3.AmazonS3;
 import org.joda.time.DateTime;
 import org.testng.annotations.AfterClass;
 import org.testng.annotations.AfterMethod;
@@ -16,24 +16,25 @@ import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
 import org.sagebionetworks.bridge.config.Config;
-import org.sagebionetworks.bridge.json.DefaultObjectMapper;
 import org.sagebionetworks.bridge.rest.api.ForConsentedUsersApi;
 import org.sagebionetworks.bridge.rest.model.Role;
 import org.sagebionetworks.bridge.rest.model.SharingScope;
 import org.sagebionetworks.bridge.rest.model.StudyParticipant;
 import org.sagebionetworks.bridge.rest.model.UploadStatus;
 import org.sagebionetworks.bridge.rest.model.UploadValidationStatus;
-import org.sagebionetworks.bridge.s3.S3Helper;
 import org.sagebionetworks.bridge.sqs.SqsHelper;
 import org.sagebionetworks.bridge.user.TestUser;
 import org.sagebionetworks.bridge.user.TestUserHelper;
 
-@SuppressWarnings({ "deprecation", "unchecked" })
+// Deliberately serial. Tests in this class keep per-test state in instance fields, and wait on the UploadRedriveWorker
+// finish time, so they can't run concurrently with each other.
+@SuppressWarnings("unchecked")
+@Test(singleThreaded = true)
 public class UploadRedriveTest {
-    private static final String WORKER_ID = "UploadRedriveWorker";
+    private static final String WORKER_ID = WorkerRequest.SERVICE_UPLOAD_REDRIVE;
 
     private static Config config;
-    private static S3Helper s3Helper;
+    private static AmazonS3 s3Client;
     private static SqsHelper sqsHelper;
     private static String workerSqsUrl;
     private static Table ddbWorkerLogTable;
@@ -53,9 +54,7 @@ public class UploadRedriveTest {
         ddbWorkerLogTable = TestUtils.getDdbTable(config, ddbClient, "WorkerLog");
 
         // S3.
-        AmazonS3Client s3Client = new AmazonS3Client(awsCredentialsProvider);
-        s3Helper = new S3Helper();
-        s3Helper.setS3Client(s3Client);
+        s3Client = TestUtils.getS3Client(awsCredentialsProvider);
 
         // SQS.
         workerSqsUrl = config.get("worker.request.sqs.queue.url");
@@ -68,8 +67,8 @@ public class UploadRedriveTest {
 
     @BeforeMethod
     public void setupUser() throws Exception {
-        // Create user.
-        user = TestUserHelper.createAndSignInUser(UploadRedriveTest.class, true);
+        // Create user. The test only checks the upload it makes here, so a user another test has used is fine.
+        user = TestUserPool.consented().acquireAllowingReuse();
         ForConsentedUsersApi userApi = user.getClient(ForConsentedUsersApi.class);
 
         // Set user's sharing status, because this is one of the few pieces of upload metadata we can easily control.
@@ -84,9 +83,10 @@ public class UploadRedriveTest {
     }
 
     @AfterMethod
-    public void deleteUser() throws Exception {
+    public void releaseUser() {
         if (user != null) {
-            user.signOutAndDeleteUser();
+            TestUserPool.consented().release(user);
+            user = null;
         }
     }
 
@@ -99,17 +99,17 @@ public class UploadRedriveTest {
 
     @Test
     public void redriveUploadId() throws Exception {
-        executeTest(uploadValidationStatus.getId(), "upload_id");
-        validateUpload(uploadValidationStatus.getId());
+        WorkerTimings.RoundTrip roundTrip = executeTest(uploadValidationStatus.getId(), "upload_id");
+        validateUpload(uploadValidationStatus.getId(), roundTrip);
     }
 
     @Test
     public void redriveRecordId() throws Exception {
-        executeTest(uploadValidationStatus.getRecord().getId(), "record_id");
-        validateUpload(uploadValidationStatus.getId());
+        WorkerTimings.RoundTrip roundTrip = executeTest(uploadValidationStatus.getRecord().getId(), "record_id");
+        validateUpload(uploadValidationStatus.getId(), roundTrip);
     }
 
-    private void executeTest(String idToRedrive, String redriveType) throws Exception {
+    private WorkerTimings.RoundTrip executeTest(String idToRedrive, String redriveType) throws Exception {
         // Change the user's sharing status to sponsors_and_partners, so we can verify this change when we redrive.
         ForConsentedUsersApi userApi = user.getClient(ForConsentedUsersApi.class);
         StudyParticipant participant = userApi.getUsersParticipantRecord(false).execute().body();
@@ -121,31 +121,26 @@ public class UploadRedriveTest {
         String s3Key = "redrive-integ-test-" + DateTime.now();
 
         // Write ID list to S3.
-        s3Helper.writeLinesToS3(s3Bucket, s3Key, ImmutableList.of(idToRedrive));
+        new RedriveManifestWriter(s3Client).write(s3Bucket, s3Key, Stream.of(idToRedrive));
 
         // We need to know the previous finish time so we can determine when the worker is finished.
         long previousFinishTime = TestUtils.getWorkerLastFinishedTime(ddbWorkerLogTable, WORKER_ID);
 
         // Create request.
-        String requestText = "{\n" +
-                "   \"service\":\"UploadRedriveWorker\",\n" +
-                "   \"body\":{\n" +
-                "       \"s3Bucket\":\"" + s3Bucket + "\",\n" +
-                "       \"s3Key\":\"" + s3Key + "\",\n" +
-                "       \"redriveType\":\"" + redriveType + "\"\n" +
-                "   }\n" +
-                "}";
-        JsonNode requestNode = DefaultObjectMapper.INSTANCE.readTree(requestText);
-        sqsHelper.sendMessageAsJson(workerSqsUrl, requestNode, 0);
+        WorkerRequest request = WorkerRequest.uploadRedrive().withS3Bucket(s3Bucket).withS3Key(s3Key)
+                .withRedriveType(redriveType).build();
+        WorkerTimings.RoundTrip roundTrip = WorkerTimings.sendWorkerRequest(sqsHelper, workerSqsUrl, request);
 
         // Wait until the worker is finished.
-        TestUtils.pollWorkerLog(ddbWorkerLogTable, WORKER_ID, previousFinishTime);
+        TestUtils.pollWorkerLog(ddbWorkerLogTable, WORKER_ID, previousFinishTime, roundTrip);
+        return roundTrip;
     }
 
-    private void validateUpload(String uploadId) throws Exception {
+    private void validateUpload(String uploadId, WorkerTimings.RoundTrip roundTrip) throws Exception {
         UploadValidationStatus uploadValidationStatus = user.getClient(ForConsentedUsersApi.class)
                 .getUploadStatus(uploadId).execute().body();
         assertEquals(uploadValidationStatus.getStatus(), UploadStatus.SUCCEEDED);
         assertEquals(uploadValidationStatus.getRecord().getUserSharingScope(), SharingScope.SPONSORS_AND_PARTNERS);
+        roundTrip.markVerified();
     }
 }
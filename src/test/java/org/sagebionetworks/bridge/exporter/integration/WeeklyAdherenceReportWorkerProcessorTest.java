@@ -6,25 +6,17 @@ import static org.sagebionetworks.bridge.util.IntegTestUtils.TEST_APP_ID;
 import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertTrue;
 
-import java.io.IOException;
-
 import org.apache.commons.lang3.RandomStringUtils;
 import org.sagebionetworks.bridge.config.Config;
-import org.sagebionetworks.bridge.json.DefaultObjectMapper;
 import org.sagebionetworks.bridge.rest.api.AssessmentsApi;
 import org.sagebionetworks.bridge.rest.api.ParticipantsApi;
 import org.sagebionetworks.bridge.rest.api.SchedulesV2Api;
 import org.sagebionetworks.bridge.rest.api.StudyAdherenceApi;
-import org.sagebionetworks.bridge.rest.exceptions.EntityNotFoundException;
-import org.sagebionetworks.bridge.rest.model.AdherenceReportSearch;
 import org.sagebionetworks.bridge.rest.model.Assessment;
 import org.sagebionetworks.bridge.rest.model.AssessmentReference2;
 import org.sagebionetworks.bridge.rest.model.Schedule2;
 import org.sagebionetworks.bridge.rest.model.Session;
-import org.sagebionetworks.bridge.rest.model.TestFilter;
 import org.sagebionetworks.bridge.rest.model.TimeWindow;
-import org.sagebionetworks.bridge.rest.model.WeeklyAdherenceReport;
-import org.sagebionetworks.bridge.rest.model.WeeklyAdherenceReportList;
 import org.sagebionetworks.bridge.sqs.SqsHelper;
 import org.sagebionetworks.bridge.user.TestUser;
 import org.sagebionetworks.bridge.user.TestUserHelper;
@@ -33,17 +25,19 @@ import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
 import com.amazonaws.auth.AWSCredentialsProvider;
-import com.fasterxml.jackson.databind.node.ObjectNode;
 
 public class WeeklyAdherenceReportWorkerProcessorTest {
     
     private static final String STUDY_ID_1 = "study1";
+    private static final long REPORT_WAIT_MILLIS = 8000L;
+    private static final long REPORT_POLL_INTERVAL_MILLIS = 1000L;
 
     private SqsHelper sqsHelper;
     private String workerSqsUrl;
     private TestUser admin;
     private TestUser user;
     private String userId;
+    private TestResources.Lease scheduleLease;
     
     private Schedule2 schedule;
     private Assessment assessment;
@@ -52,6 +46,7 @@ public class WeeklyAdherenceReportWorkerProcessorTest {
     AssessmentsApi assessmentApi;
     StudyAdherenceApi adherenceApi;
     ParticipantsApi participantApi;
+    AdherenceReportLookup reportLookup;
     
     @BeforeMethod
     public void beforeMethod() throws Exception {
@@ -61,7 +56,7 @@ public class WeeklyAdherenceReportWorkerProcessorTest {
         AWSCredentialsProvider awsCredentialsProvider = TestUtils.getAwsCredentialsForConfig(bridgeConfig);
         sqsHelper = TestUtils.getSqsHelper(awsCredentialsProvider);
         
-        user = TestUserHelper.createAndSignInUser(getClass(), true);
+        user = TestUserPool.consented().acquire();
         userId = user.getUserId();
         
         admin = TestUserHelper.getSignedInAdmin();
@@ -69,11 +64,13 @@ public class WeeklyAdherenceReportWorkerProcessorTest {
         adherenceApi = admin.getClient(StudyAdherenceApi.class);
         assessmentApi = admin.getClient(AssessmentsApi.class);
         participantApi = admin.getClient(ParticipantsApi.class);
+        reportLookup = new AdherenceReportLookup(adherenceApi, STUDY_ID_1);
         
-        // We need to create a schedule in study1 for this user if it doesn't exist.
-        try {
-            scheduleApi.getScheduleForStudy(STUDY_ID_1).execute().body();
-        } catch(EntityNotFoundException e) {
+        // We need to create a schedule in study1 for this user if it doesn't exist. Study can only have one schedule,
+        // so lease it, in case another test in a parallel run is changing it.
+        // Whether the study has a schedule is cached for the suite, so we don't look it up before every test.
+        scheduleLease = TestResources.leaseStudySchedule(STUDY_ID_1);
+        if (!SuiteFixtures.get().hasStudySchedule(admin, STUDY_ID_1)) {
             String assessmentId = RandomStringUtils.randomAlphabetic(10);
             
             assessment = new Assessment()
@@ -98,61 +95,64 @@ public class WeeklyAdherenceReportWorkerProcessorTest {
             session.addTimeWindowsItem(new TimeWindow().startTime("08:00").expiration("P3D"));
 
             schedule = new Schedule2();
-            schedule.setName("Test Schedule [WeeklyAdherenceReportWorkerProcessorTest]");
+            schedule.setName(TestResources.uniqueName("Test Schedule [WeeklyAdherenceReportWorkerProcessorTest]"));
             schedule.setDuration("P1W");
             schedule.addSessionsItem(session);
 
             schedule = scheduleApi.saveScheduleForStudy(STUDY_ID_1, schedule).execute().body();
+            SuiteFixtures.get().recordStudySchedule(STUDY_ID_1, schedule.getGuid());
         }
     }
     
     @AfterMethod
-    public void afterMethod() throws IOException {
-        if (schedule != null) {
-            scheduleApi.deleteSchedule(schedule.getGuid()).execute().body();
-            assessmentApi.deleteAssessment(assessment.getGuid(), true).execute().body();
+    public void afterMethod() throws Exception {
+        try {
+            // Only delete the schedule if we created it, so the study is left the way we found it.
+            if (schedule != null) {
+                scheduleApi.deleteSchedule(schedule.getGuid()).execute().body();
+                SuiteFixtures.get().forgetStudySchedule(STUDY_ID_1);
+                assessmentApi.deleteAssessment(assessment.getGuid(), true).execute().body();
+            }
+        } finally {
+            if (scheduleLease != null) {
+                scheduleLease.close();
+                scheduleLease = null;
+            }
         }
         if (user != null) {
-            user.signOutAndDeleteUser();
+            TestUserPool.consented().release(user);
+            user = null;
+        }
+        if (reportLookup != null) {
+            reportLookup.shutdown();
+            reportLookup = null;
         }
     }
 
     @Test
     public void requestCaching() throws Exception {
-        String requestText = "{\"service\":\"WeeklyAdherenceReportWorker\", \"body\":{\"selectedStudies\":{\"api\":[\"study1\"]}}}";
-        ObjectNode requestNode = (ObjectNode) DefaultObjectMapper.INSTANCE.readTree(requestText);
-
-        sqsHelper.sendMessageAsJson(workerSqsUrl, requestNode, 0);
+        WorkerRequest request = WorkerRequest.weeklyAdherenceReport().withSelectedStudies(TEST_APP_ID, STUDY_ID_1)
+                .build();
+        WorkerTimings.RoundTrip roundTrip = WorkerTimings.sendWorkerRequest(sqsHelper, workerSqsUrl, request);
         
-        // Wait. Let the worker do its thing.
-        Thread.sleep(8000L);
+        // Wait. Let the worker do its thing. The worker doesn't write to the worker log, so poll for our user's
+        // report, and use the first time we see it as the worker's finish time. Polls use the cheap lookups, and the
+        // study is only scanned once, if they miss for the whole wait.
+        boolean reportCreated = reportLookup.awaitReport(userId, REPORT_WAIT_MILLIS, REPORT_POLL_INTERVAL_MILLIS)
+                != null;
         
         // This should return our user...
-        assertTrue( reportCreatedForUser() );
+        assertTrue(reportCreated);
+        roundTrip.markOutputObserved();
+        roundTrip.markVerified();
         
-        // This should cascade delete the user's report
-        user.signOutAndDeleteUser();
+        // This should cascade delete the user's report. Discarding the user deletes it and removes it from the pool.
+        TestUserPool.consented().discard(user);
         user = null;
+        reportLookup.invalidate(userId);
         
-        assertFalse( reportCreatedForUser() );
-    }
-    
-    private boolean reportCreatedForUser() throws Exception {
-        int offset = 0;
-        WeeklyAdherenceReportList list = null;
-        while (list == null || !list.getItems().isEmpty()) {
-            AdherenceReportSearch search = new AdherenceReportSearch()
-                    .testFilter(TestFilter.TEST).pageSize(100).offsetBy(offset);
-            list = adherenceApi.getStudyParticipantWeeklyAdherenceReports(
-                    STUDY_ID_1, search).execute().body();
-            for (WeeklyAdherenceReport report : list.getItems()) {
-                if (report.getParticipant().getIdentifier().equals(userId)) {
-                    return true;
-                }
-            }
-            offset += 100;
-        }
-        return false;
+        // The report should be gone now, so this is one search and one scan.
+        assertFalse( reportLookup.hasReport(userId) );
     }
 
 }
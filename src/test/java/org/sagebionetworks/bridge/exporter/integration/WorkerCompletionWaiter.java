@@ -0,0 +1,98 @@
+package org.sagebionetworks.bridge.exporter.integration;
+
+import static org.testng.Assert.assertTrue;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.amazonaws.services.dynamodbv2.document.Table;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Waits for a worker to finish, as determined by a finish time newer than the one we saw before sending the request.
+ * Instead of sleeping a fixed interval, this starts with a short delay and backs off exponentially (with jitter) up to
+ * a max delay, so we return as soon as the worker finishes, without hammering the finish time source.
+ */
+public class WorkerCompletionWaiter {
+    private static final Logger LOG = LoggerFactory.getLogger(WorkerCompletionWaiter.class);
+
+    public static final long DEFAULT_DEADLINE_MILLIS = 30000;
+    public static final long DEFAULT_INITIAL_DELAY_MILLIS = 250;
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 5000;
+
+    private final WorkerFinishTimeSource finishTimeSource;
+    private long deadlineMillis = DEFAULT_DEADLINE_MILLIS;
+    private long initialDelayMillis = DEFAULT_INITIAL_DELAY_MILLIS;
+    private long maxDelayMillis = DEFAULT_MAX_DELAY_MILLIS;
+
+    /** Creates a waiter that reads finish times from the given source. */
+    public WorkerCompletionWaiter(WorkerFinishTimeSource finishTimeSource) {
+        this.finishTimeSource = finishTimeSource;
+    }
+
+    /** Creates a waiter that queries the given WorkerLog table. */
+    public static WorkerCompletionWaiter forWorkerLog(Table workerLogTable) {
+        return new WorkerCompletionWaiter(workerId -> TestUtils.getWorkerLastFinishedTime(workerLogTable, workerId));
+    }
+
+    /** Total time to wait for the worker before giving up. */
+    public WorkerCompletionWaiter withDeadlineMillis(long deadlineMillis) {
+        this.deadlineMillis = deadlineMillis;
+        return this;
+    }
+
+    /** Delay before the second check. The first check happens immediately. */
+    public WorkerCompletionWaiter withInitialDelayMillis(long initialDelayMillis) {
+        this.initialDelayMillis = initialDelayMillis;
+        return this;
+    }
+
+    /** Upper bound on the delay between checks. */
+    public WorkerCompletionWaiter withMaxDelayMillis(long maxDelayMillis) {
+        this.maxDelayMillis = maxDelayMillis;
+        return this;
+    }
+
+    /**
+     * Waits until the worker has a finish time after previousFinishTime, or until the deadline passes. Returns the
+     * latest finish time seen, which may be previousFinishTime (or earlier) if we timed out.
+     */
+    public long awaitFinishAfter(String workerId, long previousFinishTime) throws Exception {
+        long startMillis = System.currentTimeMillis();
+        long deadline = startMillis + deadlineMillis;
+        long delayMillis = initialDelayMillis;
+        int numChecks = 0;
+        while (true) {
+            long finishTime = finishTimeSource.getLastFinishTime(workerId);
+            numChecks++;
+            if (finishTime > previousFinishTime) {
+                LOG.info(workerId + " finished after " + (System.currentTimeMillis() - startMillis) + "ms and " +
+                        numChecks + " checks");
+                return finishTime;
+            }
+
+            long remainingMillis = deadline - System.currentTimeMillis();
+            if (remainingMillis <= 0) {
+                LOG.warn("Timed out waiting for " + workerId + " after " + numChecks + " checks");
+                return finishTime;
+            }
+
+            Thread.sleep(Math.min(remainingMillis, withJitter(delayMillis)));
+            delayMillis = Math.min(delayMillis * 2, maxDelayMillis);
+        }
+    }
+
+    /** Same as awaitFinishAfter, but fails the test if the worker didn't finish in time. */
+    public long assertFinishAfter(String workerId, long previousFinishTime) throws Exception {
+        long finishTime = awaitFinishAfter(workerId, previousFinishTime);
+        assertTrue(finishTime > previousFinishTime, "Worker log has updated finish time");
+        return finishTime;
+    }
+
+    // "Equal jitter": half the delay is fixed, the other half is random. This keeps concurrent waiters from polling
+    // in lockstep, while still guaranteeing some minimum backoff.
+    static long withJitter(long delayMillis) {
+        long half = delayMillis / 2;
+        return half + ThreadLocalRandom.current().nextLong(delayMillis - half + 1);
+    }
+}
@@ -0,0 +1,10 @@
+package org.sagebionetworks.bridge.exporter.integration;
+
+/**
+ * Source of worker finish times. The default implementation queries the WorkerLog table, but this can be swapped out
+ * for anything that can tell us when a worker last finished (for example, a stream reader or a local stand-in).
+ */
+public interface WorkerFinishTimeSource {
+    /** Returns the latest finish time (epoch millis) for the given worker, or 0 if the worker never finished. */
+    long getLastFinishTime(String workerId) throws Exception;
+}
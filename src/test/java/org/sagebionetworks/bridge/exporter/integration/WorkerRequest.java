@@ -0,0 +1,233 @@
+package org.sagebionetworks.bridge.exporter.integration;
+
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Preconditions;
+import org.joda.time.DateTime;
+import org.joda.time.LocalDate;
+
+import org.sagebionetworks.bridge.json.DefaultObjectMapper;
+
+/**
+ * A request to the Bridge Worker, of the form {"service":..., "body":{...}}. Use the builder for the service (eg,
+ * WorkerRequest.reporter()), which writes fields straight into the request's ObjectNode, instead of concatenating and
+ * re-parsing JSON text.
+ *
+ * Requests can be sent one at a time with WorkerTimings.sendWorkerRequest(), or many at a time with
+ * WorkerRequestSubmitter.
+ */
+public class WorkerRequest {
+    public static final String SERVICE_ACTIVITY_NOTIFICATION = "ActivityNotificationWorker";
+    public static final String SERVICE_FITBIT = "FitBitWorker";
+    public static final String SERVICE_REPORTER = "REPORTER";
+    public static final String SERVICE_UPLOAD_REDRIVE = "UploadRedriveWorker";
+    public static final String SERVICE_WEEKLY_ADHERENCE_REPORT = "WeeklyAdherenceReportWorker";
+
+    private final String service;
+    private final ObjectNode requestNode;
+
+    private WorkerRequest(String service, ObjectNode requestNode) {
+        this.service = service;
+        this.requestNode = requestNode;
+    }
+
+    public String getService() {
+        return service;
+    }
+
+    /** The request as JSON. Callers shouldn't modify this. */
+    public ObjectNode toJsonNode() {
+        return requestNode;
+    }
+
+    public static ActivityNotificationBuilder activityNotification() {
+        return new ActivityNotificationBuilder();
+    }
+
+    public static FitBitBuilder fitBit() {
+        return new FitBitBuilder();
+    }
+
+    public static ReporterBuilder reporter() {
+        return new ReporterBuilder();
+    }
+
+    public static UploadRedriveBuilder uploadRedrive() {
+        return new UploadRedriveBuilder();
+    }
+
+    public static WeeklyAdherenceReportBuilder weeklyAdherenceReport() {
+        return new WeeklyAdherenceReportBuilder();
+    }
+
+    // Common code for all builders. Subclasses write their fields into bodyNode.
+    static abstract class AbstractBuilder {
+        private final String service;
+        private final ObjectNode requestNode = DefaultObjectMapper.INSTANCE.createObjectNode();
+        final ObjectNode bodyNode;
+
+        AbstractBuilder(String service) {
+            this.service = service;
+            requestNode.put("service", service);
+            bodyNode = requestNode.putObject("body");
+        }
+
+        void requireFields(String... fieldNames) {
+            for (String oneFieldName : fieldNames) {
+                Preconditions.checkState(bodyNode.hasNonNull(oneFieldName), service + " request requires " +
+                        oneFieldName);
+            }
+        }
+
+        // The request gets its own copy, so changing the builder after build() doesn't change requests already built.
+        WorkerRequest makeRequest() {
+            return new WorkerRequest(service, requestNode.deepCopy());
+        }
+    }
+
+    /** Builder for ActivityNotificationWorker requests. */
+    public static class ActivityNotificationBuilder extends AbstractBuilder {
+        private ActivityNotificationBuilder() {
+            super(SERVICE_ACTIVITY_NOTIFICATION);
+        }
+
+        public ActivityNotificationBuilder withDate(LocalDate date) {
+            bodyNode.put("date", date.toString());
+            return this;
+        }
+
+        public ActivityNotificationBuilder withAppId(String appId) {
+            bodyNode.put("appId", appId);
+            return this;
+        }
+
+        public ActivityNotificationBuilder withTag(String tag) {
+            bodyNode.put("tag", tag);
+            return this;
+        }
+
+        /** Only send notifications to these users. If not specified, the worker checks all users in the app. */
+        public ActivityNotificationBuilder withUserIds(String... userIds) {
+            addArray(bodyNode, "userList", userIds);
+            return this;
+        }
+
+        public WorkerRequest build() {
+            requireFields("date", "appId");
+            return makeRequest();
+        }
+    }
+
+    /** Builder for FitBitWorker requests. */
+    public static class FitBitBuilder extends AbstractBuilder {
+        private FitBitBuilder() {
+            super(SERVICE_FITBIT);
+        }
+
+        public FitBitBuilder withDate(LocalDate date) {
+            bodyNode.put("date", date.toString());
+            return this;
+        }
+
+        public FitBitBuilder withAppWhitelist(String... appIds) {
+            addArray(bodyNode, "appWhitelist", appIds);
+            return this;
+        }
+
+        public WorkerRequest build() {
+            requireFields("date");
+            return makeRequest();
+        }
+    }
+
+    /** Builder for REPORTER requests. */
+    public static class ReporterBuilder extends AbstractBuilder {
+        private ReporterBuilder() {
+            super(SERVICE_REPORTER);
+        }
+
+        public ReporterBuilder withScheduler(String scheduler) {
+            bodyNode.put("scheduler", scheduler);
+            return this;
+        }
+
+        /** Report type, eg DAILY_SIGNUPS or DAILY_RETENTION. */
+        public ReporterBuilder withScheduleType(String scheduleType) {
+            bodyNode.put("scheduleType", scheduleType);
+            return this;
+        }
+
+        public ReporterBuilder withAppWhitelist(String... appIds) {
+            addArray(bodyNode, "appWhitelist", appIds);
+            return this;
+        }
+
+        public ReporterBuilder withStartDateTime(DateTime startDateTime) {
+            bodyNode.put("startDateTime", startDateTime.toString());
+            return this;
+        }
+
+        public ReporterBuilder withEndDateTime(DateTime endDateTime) {
+            bodyNode.put("endDateTime", endDateTime.toString());
+            return this;
+        }
+
+        public WorkerRequest build() {
+            requireFields("scheduler", "scheduleType", "startDateTime", "endDateTime");
+            return makeRequest();
+        }
+    }
+
+    /** Builder for UploadRedriveWorker requests. */
+    public static class UploadRedriveBuilder extends AbstractBuilder {
+        private UploadRedriveBuilder() {
+            super(SERVICE_UPLOAD_REDRIVE);
+        }
+
+        public UploadRedriveBuilder withS3Bucket(String s3Bucket) {
+            bodyNode.put("s3Bucket", s3Bucket);
+            return this;
+        }
+
+        public UploadRedriveBuilder withS3Key(String s3Key) {
+            bodyNode.put("s3Key", s3Key);
+            return this;
+        }
+
+        /** Type of ID in the redrive list, either upload_id or record_id. */
+        public UploadRedriveBuilder withRedriveType(String redriveType) {
+            bodyNode.put("redriveType", redriveType);
+            return this;
+        }
+
+        public WorkerRequest build() {
+            requireFields("s3Bucket", "s3Key", "redriveType");
+            return makeRequest();
+        }
+    }
+
+    /** Builder for WeeklyAdherenceReportWorker requests. */
+    public static class WeeklyAdherenceReportBuilder extends AbstractBuilder {
+        private WeeklyAdherenceReportBuilder() {
+            super(SERVICE_WEEKLY_ADHERENCE_REPORT);
+        }
+
+        /** Limits the worker to the given studies in the given app. Can be called once per app. */
+        public WeeklyAdherenceReportBuilder withSelectedStudies(String appId, String... studyIds) {
+            ObjectNode selectedStudiesNode = bodyNode.with("selectedStudies");
+            addArray(selectedStudiesNode, appId, studyIds);
+            return this;
+        }
+
+        public WorkerRequest build() {
+            return makeRequest();
+        }
+    }
+
+    private static void addArray(ObjectNode parentNode, String fieldName, String... values) {
+        ArrayNode arrayNode = parentNode.putArray(fieldName);
+        for (String oneValue : values) {
+            arrayNode.add(oneValue);
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package org.sagebionetworks.bridge.exporter.integration;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.model.BatchResultErrorEntry;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequest;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.SendMessageBatchResult;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.RateLimiter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.sagebionetworks.bridge.json.DefaultObjectMapper;
+
+/**
+ * Submits many worker requests to SQS for load tests. Requests are sent with SendMessageBatch, MAX_BATCH_SIZE per
+ * call, and batches are spread round-robin across the given queues. At most maxInFlightBatches batches are in flight
+ * at once, and the send rate is capped at messagesPerSecond (if set).
+ *
+ * Entries SQS fails for a server-side reason are retried with backoff, up to maxRetries times. Entries that fail
+ * because of the request itself (sender fault) aren't retried. Either way, the requests that were never enqueued are
+ * returned in the result, along with the achieved enqueue throughput.
+ */
+public class WorkerRequestSubmitter {
+    private static final Logger LOG = LoggerFactory.getLogger(WorkerRequestSubmitter.class);
+
+    /** SQS allows at most this many messages in a SendMessageBatch call. */
+    public static final int MAX_BATCH_SIZE = 10;
+
+    private static final int DEFAULT_MAX_IN_FLIGHT_BATCHES = 4;
+    private static final int DEFAULT_MAX_RETRIES = 3;
+    private static final long DEFAULT_RETRY_DELAY_MILLIS = 200;
+
+    private final AmazonSQS sqsClient;
+    private final List<String> queueUrlList;
+    private int maxInFlightBatches = DEFAULT_MAX_IN_FLIGHT_BATCHES;
+    private int maxRetries = DEFAULT_MAX_RETRIES;
+    private long retryDelayMillis = DEFAULT_RETRY_DELAY_MILLIS;
+    private double messagesPerSecond = 0;
+
+    /** Creates a submitter that spreads batches across the given queues. */
+    public WorkerRequestSubmitter(AmazonSQS sqsClient, List<String> queueUrlList) {
+        Preconditions.checkArgument(!queueUrlList.isEmpty(), "queueUrlList can't be empty");
+        this.sqsClient = sqsClient;
+        this.queueUrlList = ImmutableList.copyOf(queueUrlList);
+    }
+
+    /** Max number of batches sent concurrently. Defaults to 4. */
+    public WorkerRequestSubmitter withMaxInFlightBatches(int maxInFlightBatches) {
+        this.maxInFlightBatches = maxInFlightBatches;
+        return this;
+    }
+
+    /** Max number of times a failed entry is retried. Defaults to 3. */
+    public WorkerRequestSubmitter withMaxRetries(int maxRetries) {
+        this.maxRetries = maxRetries;
+        return this;
+    }
+
+    /** Delay before the first retry. Doubles with each retry. Defaults to 200ms. */
+    public WorkerRequestSubmitter withRetryDelayMillis(long retryDelayMillis) {
+        this.retryDelayMillis = retryDelayMillis;
+        return this;
+    }
+
+    /** Max number of messages sent per second, across all queues. 0 (the default) means no limit. */
+    public WorkerRequestSubmitter withMessagesPerSecond(double messagesPerSecond) {
+        this.messagesPerSecond = messagesPerSecond;
+        return this;
+    }
+
+    /** Sends all requests, and waits for them to be enqueued (or to fail). */
+    public Result submit(List<WorkerRequest> requestList) throws InterruptedException {
+        RateLimiter rateLimiter = messagesPerSecond > 0 ? RateLimiter.create(messagesPerSecond) : null;
+        Semaphore inFlightPermits = new Semaphore(maxInFlightBatches);
+        ExecutorService executorService = Executors.newFixedThreadPool(maxInFlightBatches);
+        AtomicInteger enqueuedCount = new AtomicInteger();
+        AtomicInteger retryCount = new AtomicInteger();
+        Queue<WorkerRequest> failedRequestQueue = new ConcurrentLinkedQueue<>();
+
+        long startMillis = System.currentTimeMillis();
+        List<CompletableFuture<Void>> futureList = new ArrayList<>();
+        try {
+            int batchIndex = 0;
+            for (List<WorkerRequest> oneBatch : Lists.partition(requestList, MAX_BATCH_SIZE)) {
+                String queueUrl = queueUrlList.get(batchIndex % queueUrlList.size());
+                batchIndex++;
+
+                // Rate limit and bound in-flight batches on the submitting thread, so we don't queue up batches
+                // faster than we can send them.
+                if (rateLimiter != null) {
+                    rateLimiter.acquire(oneBatch.size());
+                }
+                inFlightPermits.acquire();
+                futureList.add(CompletableFuture.runAsync(() -> {
+                    try {
+                        sendWithRetries(queueUrl, oneBatch, enqueuedCount, retryCount, failedRequestQueue);
+                    } finally {
+                        inFlightPermits.release();
+                    }
+                }, executorService));
+            }
+            CompletableFuture.allOf(futureList.toArray(new CompletableFuture[0])).join();
+        } finally {
+            executorService.shutdown();
+        }
+        long elapsedMillis = System.currentTimeMillis() - startMillis;
+
+        Result result = new Result(enqueuedCount.get(), retryCount.get(), ImmutableList.copyOf(failedRequestQueue),
+                elapsedMillis);
+        LOG.info(String.format("Submitted %d worker requests to %d queue(s): enqueued=%d, failed=%d, retries=%d, " +
+                        "elapsed=%dms, throughput=%.2f/s", requestList.size(), queueUrlList.size(),
+                result.getEnqueuedCount(), result.getFailedRequestList().size(), result.getRetryCount(),
+                elapsedMillis, result.getThroughputPerSecond()));
+        return result;
+    }
+
+    // Sends one batch. Retryable failures are re-sent (only the failed entries) until they succeed or we run out of
+    // retries.
+    private void sendWithRetries(String queueUrl, List<WorkerRequest> batch, AtomicInteger enqueuedCount,
+            AtomicInteger retryCount, Queue<WorkerRequest> failedRequestQueue) {
+        List<WorkerRequest> pendingList = batch;
+        long delayMillis = retryDelayMillis;
+        for (int attempt = 0; !pendingList.isEmpty(); attempt++) {
+            if (attempt > 0) {
+                if (attempt > maxRetries) {
+                    failedRequestQueue.addAll(pendingList);
+                    return;
+                }
+                retryCount.addAndGet(pendingList.size());
+                try {
+                    TimeUnit.MILLISECONDS.sleep(delayMillis);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    failedRequestQueue.addAll(pendingList);
+                    return;
+                }
+                delayMillis *= 2;
+            }
+
+            List<WorkerRequest> retryList = new ArrayList<>();
+            try {
+                // Entry IDs are the request's index in the pending list, so we can map failures back to requests.
+                List<SendMessageBatchRequestEntry> entryList = new ArrayList<>();
+                for (int i = 0; i < pendingList.size(); i++) {
+                    entryList.add(toBatchEntry(pendingList.get(i), String.valueOf(i)));
+                }
+                SendMessageBatchResult result = sqsClient.sendMessageBatch(new SendMessageBatchRequest(queueUrl,
+                        entryList));
+                enqueuedCount.addAndGet(result.getSuccessful().size());
+
+                for (BatchResultErrorEntry oneFailedEntry : result.getFailed()) {
+                    WorkerRequest failedRequest = pendingList.get(Integer.parseInt(oneFailedEntry.getId()));
+                    if (Boolean.TRUE.equals(oneFailedEntry.getSenderFault())) {
+                        // Retrying won't help.
+                        LOG.warn("SQS rejected " + failedRequest.getService() + " request: " +
+                                oneFailedEntry.getCode() + " " + oneFailedEntry.getMessage());
+                        failedRequestQueue.add(failedRequest);
+                    } else {
+                        retryList.add(failedRequest);
+                    }
+                }
+            } catch (JsonProcessingException ex) {
+                // Should never happen, since these are plain ObjectNodes.
+                LOG.error("Error serializing worker requests", ex);
+                failedRequestQueue.addAll(pendingList);
+                return;
+            } catch (AmazonClientException ex) {
+                // The whole call failed. Retry the whole batch.
+                LOG.warn("Error sending batch to " + queueUrl + ": " + ex.getMessage());
+                retryList = pendingList;
+            }
+            pendingList = retryList;
+        }
+    }
+
+    // The entry ID must be unique within the batch.
+    private static SendMessageBatchRequestEntry toBatchEntry(WorkerRequest request, String entryId)
+            throws JsonProcessingException {
+        return new SendMessageBatchRequestEntry(entryId, DefaultObjectMapper.INSTANCE.writeValueAsString(
+                request.toJsonNode()));
+    }
+
+    /** Outcome of submit(). */
+    public static class Result {
+        private final int enqueuedCount;
+        private final int retryCount;
+        private final List<WorkerRequest> failedRequestList;
+        private final long elapsedMillis;
+
+        private Result(int enqueuedCount, int retryCount, List<WorkerRequest> failedRequestList,
+                long elapsedMillis) {
+            this.enqueuedCount = enqueuedCount;
+            this.retryCount = retryCount;
+            this.failedRequestList = failedRequestList;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        /** Number of requests SQS accepted. */
+        public int getEnqueuedCount() {
+            return enqueuedCount;
+        }
+
+        /** Number of entry retries (an entry retried twice counts twice). */
+        public int getRetryCount() {
+            return retryCount;
+        }
+
+        /** Requests that were never enqueued. */
+        public List<WorkerRequest> getFailedRequestList() {
+            return failedRequestList;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        /** Enqueued requests per second. */
+        public double getThroughputPerSecond() {
+            return elapsedMillis > 0 ? enqueuedCount * 1000.0 / elapsedMillis : 0;
+        }
+    }
+}
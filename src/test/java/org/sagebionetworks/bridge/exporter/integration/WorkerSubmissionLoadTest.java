@@ -0,0 +1,67 @@
+package org.sagebionetworks.bridge.exporter.integration;
+
+import static org.testng.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.google.common.base.Splitter;
+import org.joda.time.DateTime;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import org.sagebionetworks.bridge.config.Config;
+import org.sagebionetworks.bridge.util.IntegTestUtils;
+
+/**
+ * Load test for worker request submission. Sends load.worker.requests REPORTER requests through
+ * WorkerRequestSubmitter, and checks that they were all enqueued. The submitter logs achieved enqueue throughput.
+ *
+ * Requests all use the same scheduler, so the worker overwrites one signups report instead of creating a new report
+ * per request. Requests go to the worker queue, or to the queues in load.worker.queue.urls (comma-separated), if set.
+ *
+ * Only runs with the load profile (mvn test -Pload).
+ */
+@Test(groups = "load")
+public class WorkerSubmissionLoadTest {
+    private static final String SCHEDULER = "worker-load-test";
+
+    private static WorkerRequestSubmitter submitter;
+    private static int numRequests;
+
+    @BeforeClass
+    public static void beforeClass() throws Exception {
+        Config config = TestUtils.loadConfig();
+        numRequests = Integer.parseInt(config.get("load.worker.requests"));
+
+        List<String> queueUrlList;
+        String queueUrls = config.get("load.worker.queue.urls");
+        if (queueUrls != null && !queueUrls.isEmpty()) {
+            queueUrlList = Splitter.on(',').trimResults().omitEmptyStrings().splitToList(queueUrls);
+        } else {
+            queueUrlList = new ArrayList<>();
+            queueUrlList.add(config.get("worker.request.sqs.queue.url"));
+        }
+
+        AWSCredentialsProvider awsCredentialsProvider = TestUtils.getAwsCredentialsForConfig(config);
+        submitter = new WorkerRequestSubmitter(TestUtils.getSqsClient(awsCredentialsProvider), queueUrlList)
+                .withMessagesPerSecond(Double.parseDouble(config.get("load.worker.requests.per.second")))
+                .withMaxInFlightBatches(Integer.parseInt(config.get("load.worker.max.in.flight.batches")));
+    }
+
+    @Test
+    public void submitReporterRequests() throws Exception {
+        DateTime now = DateTime.now();
+        List<WorkerRequest> requestList = new ArrayList<>();
+        for (int i = 0; i < numRequests; i++) {
+            requestList.add(WorkerRequest.reporter().withScheduler(SCHEDULER).withScheduleType("DAILY_SIGNUPS")
+                    .withAppWhitelist(IntegTestUtils.TEST_APP_ID).withStartDateTime(now.minusHours(1))
+                    .withEndDateTime(now.plusHours(1)).build());
+        }
+
+        WorkerRequestSubmitter.Result result = submitter.submit(requestList);
+        assertEquals(result.getFailedRequestList().size(), 0, "Worker requests not enqueued");
+        assertEquals(result.getEnqueuedCount(), numRequests);
+    }
+}
@@ -4,15 +4,14 @@ import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertNotNull;
 import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
 
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 
 import com.amazonaws.auth.AWSCredentialsProvider;
@@ -20,14 +19,10 @@ import com.amazonaws.services.dynamodbv2.document.AttributeUpdate;
 import com.amazonaws.services.dynamodbv2.document.DynamoDB;
 import com.amazonaws.services.dynamodbv2.document.Item;
 import com.amazonaws.services.dynamodbv2.document.Table;
-import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.collect.ImmutableSet;
-import org.apache.commons.lang3.RandomStringUtils;
 import org.joda.time.DateTime;
 import org.joda.time.LocalDate;
 import org.sagebionetworks.client.SynapseClient;
-import org.sagebionetworks.client.exceptions.SynapseResultNotReadyException;
-import org.sagebionetworks.repo.model.table.QueryResultBundle;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.testng.annotations.AfterClass;
@@ -35,7 +30,6 @@ import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
 
 import org.sagebionetworks.bridge.config.Config;
-import org.sagebionetworks.bridge.json.DefaultObjectMapper;
 import org.sagebionetworks.bridge.rest.api.HealthDataApi;
 import org.sagebionetworks.bridge.rest.api.StudyReportsApi;
 import org.sagebionetworks.bridge.rest.model.HealthDataRecord;
@@ -52,9 +46,20 @@ public class WorkerTest {
     private static final Logger LOG = LoggerFactory.getLogger(WorkerTest.class);
 
     private static final String PHONE_INFO = "BridgeWorkerIntegTest";
+    // The worker writes the retention report under just the suffix, not the scheduler name we send, so its ID is the
+    // same in every run. Only retentionReporter() uses it.
+    private static final String RETENTION_REPORT_ID = "-daily-retention-report";
     private static final int POLL_INTERVAL_SECONDS = 5;
     private static final int POLL_MAX_ITERATIONS = 6;
 
+    // FitBit convergence. We check the worker log (cheap) frequently, but only count rows in Synapse (expensive)
+    // once the worker has finished, or every so often in case the worker never writes to the worker log.
+    private static final String FITBIT_WORKER_ID = WorkerRequest.SERVICE_FITBIT;
+    private static final long FITBIT_CONVERGENCE_TIMEOUT_MILLIS = 120000;
+    private static final long FITBIT_SAMPLE_INTERVAL_AFTER_FINISH_MILLIS = 5000;
+    private static final long FITBIT_SAMPLE_INTERVAL_BEFORE_FINISH_MILLIS = 30000;
+    private static final long FITBIT_WORKER_LOG_POLL_MILLIS = 1000;
+
     // DailyActivitySummary.activities generally gets no data, and our integ test apps don't have permissions for
     // HeartRate.activities-heart-intraday.
     private static final Set<String> EXCLUDED_FITBIT_TABLE_SET = ImmutableSet.of("DailyActivitySummary.activities",
@@ -69,9 +74,9 @@ public class WorkerTest {
     private static DateTime now;
 
     // misc
-    private static ExecutorService executorService;
-    private static String integTestRunId;
+    private static SynapseQueryEngine synapseQueryEngine;
     private static Table ddbFitBitTables;
+    private static Table ddbWorkerLogTable;
     private static TestUser developer;
     private static TestUser user;
 
@@ -91,12 +96,13 @@ public class WorkerTest {
         DynamoDB ddbClient = TestUtils.getDdbClient(awsCredentialsProvider);
         ddbFitBitTables = TestUtils.getDdbTable(bridgeConfig, ddbClient, "FitBitTables");
         Table ddbRecordTable = TestUtils.getDdbTable(bridgeConfig, ddbClient, "HealthDataRecord3");
+        ddbWorkerLogTable = TestUtils.getDdbTable(bridgeConfig, ddbClient, "WorkerLog");
 
         // Synapse clients
         synapseClient = TestUtils.getSynapseClient(bridgeConfig);
 
-        // instantiate executor
-        executorService = Executors.newCachedThreadPool();
+        // Synapse query engine, for counting rows in FitBit tables.
+        synapseQueryEngine = new SynapseQueryEngine(synapseClient);
 
         // Bridge clients
         developer = TestUserHelper.createAndSignInUser(WorkerTest.class, false, Role.DEVELOPER);
@@ -113,7 +119,7 @@ public class WorkerTest {
         DateTime uploadDateTime = now.minusMinutes(10);
 
         // Generate a test run ID
-        integTestRunId = RandomStringUtils.randomAlphabetic(4);
+        String integTestRunId = TestResources.uniqueName("integTestRunId");
         LOG.info("integTestRunId=" + integTestRunId);
 
         // Submit health data - Note that we build maps, since Jackson and GSON don't mix very well.
@@ -136,8 +142,8 @@ public class WorkerTest {
 
     @AfterClass
     public static void afterClass() throws Exception {
-        if (executorService != null) {
-            executorService.shutdown();
+        if (synapseQueryEngine != null) {
+            synapseQueryEngine.shutdown();
         }
 
         if (developer != null) {
@@ -163,38 +169,97 @@ public class WorkerTest {
         LocalDate todaysDate = now.toLocalDate();
 
         // Poll Synapse tables and count how many rows.
-        Map<String, Integer> oldCountsByTableId = countRowsForTables(todaysDate);
+        Map<String, Integer> oldCountsByTableId = countRowsForTables(ddbFitBitTables, synapseQueryEngine, todaysDate);
+
+        // We need to know the previous finish time so we can determine when the worker is finished.
+        long previousFinishTime = TestUtils.getWorkerLastFinishedTime(ddbWorkerLogTable, FITBIT_WORKER_ID);
 
         // Create request.
-        String requestText = "{\n" +
-                "   \"service\":\"FitBitWorker\",\n" +
-                "   \"body\":{\n" +
-                "       \"date\":\"" + todaysDate.toString() + "\",\n" +
-                "       \"appWhitelist\":[\"" + IntegTestUtils.TEST_APP_ID + "\"]\n" +
-                "   }\n" +
-                "}";
-        ObjectNode requestNode = (ObjectNode) DefaultObjectMapper.INSTANCE.readTree(requestText);
-        sqsHelper.sendMessageAsJson(workerSqsUrl, requestNode, 0);
-
-        // We don't have a way of determining if the FitBit Worker is complete, and polling Synapse is expensive. Just
-        // sleep for 30 seconds.
-        TimeUnit.SECONDS.sleep(30);
-
-        // Poll Synapse tables for new count and compare. Each table should have gone up.
-        Map<String, Integer> newCountsByTableId = countRowsForTables(todaysDate);
+        WorkerRequest request = WorkerRequest.fitBit().withDate(todaysDate)
+                .withAppWhitelist(IntegTestUtils.TEST_APP_ID).build();
+        WorkerTimings.RoundTrip roundTrip = WorkerTimings.sendWorkerRequest(sqsHelper, workerSqsUrl, request);
+
+        // Wait until each table has gone up. This fails the test if the tables don't converge in time.
+        awaitFitBitConvergence(todaysDate, oldCountsByTableId, previousFinishTime, roundTrip);
+        roundTrip.markVerified();
+    }
+
+    // Waits until every FitBit table has more rows than in the old counts. Polling Synapse is expensive, so we watch
+    // the worker log for the FitBit Worker to finish, and only then count rows. In case the worker doesn't write to
+    // the worker log, we also count rows every so often.
+    private static void awaitFitBitConvergence(LocalDate todaysDate, Map<String, Integer> oldCountsByTableId,
+            long previousFinishTime, WorkerTimings.RoundTrip roundTrip) throws Exception {
+        long startMillis = System.currentTimeMillis();
+        long deadlineMillis = startMillis + FITBIT_CONVERGENCE_TIMEOUT_MILLIS;
+        long nextSampleMillis = startMillis + FITBIT_SAMPLE_INTERVAL_BEFORE_FINISH_MILLIS;
+        boolean workerFinished = false;
+        Map<String, Integer> newCountsByTableId = null;
+        List<String> unconvergedTableIdList = null;
+        while (true) {
+            if (!workerFinished) {
+                long finishTime = TestUtils.getWorkerLastFinishedTime(ddbWorkerLogTable, FITBIT_WORKER_ID);
+                workerFinished = finishTime > previousFinishTime;
+                if (workerFinished) {
+                    // Count rows right away.
+                    roundTrip.markWorkerFinished(finishTime);
+                    nextSampleMillis = System.currentTimeMillis();
+                }
+            }
+
+            if (System.currentTimeMillis() >= nextSampleMillis) {
+                newCountsByTableId = countRowsForTables(ddbFitBitTables, synapseQueryEngine, todaysDate);
+                unconvergedTableIdList = getUnconvergedTables(oldCountsByTableId, newCountsByTableId);
+                if (unconvergedTableIdList.isEmpty()) {
+                    LOG.info("FitBit tables converged after " + (System.currentTimeMillis() - startMillis) + "ms");
+                    return;
+                }
+                nextSampleMillis = System.currentTimeMillis() + (workerFinished ?
+                        FITBIT_SAMPLE_INTERVAL_AFTER_FINISH_MILLIS : FITBIT_SAMPLE_INTERVAL_BEFORE_FINISH_MILLIS);
+            }
+
+            if (System.currentTimeMillis() >= deadlineMillis) {
+                break;
+            }
+            TimeUnit.MILLISECONDS.sleep(FITBIT_WORKER_LOG_POLL_MILLIS);
+        }
+
+        // Timed out. Build a diagnostic report, so we know which tables didn't go up.
+        StringBuilder reportBuilder = new StringBuilder();
+        reportBuilder.append("FitBit tables did not converge after ").append(FITBIT_CONVERGENCE_TIMEOUT_MILLIS)
+                .append("ms, workerFinished=").append(workerFinished);
+        if (newCountsByTableId == null) {
+            reportBuilder.append(", row counts were never sampled");
+        } else {
+            for (String oneTableId : unconvergedTableIdList) {
+                reportBuilder.append("\n    ").append(oneTableId).append(": ")
+                        .append(oldCountsByTableId.getOrDefault(oneTableId, 0)).append(" -> ")
+                        .append(newCountsByTableId.get(oneTableId));
+            }
+        }
+        fail(reportBuilder.toString());
+    }
+
+    private static List<String> getUnconvergedTables(Map<String, Integer> oldCountsByTableId,
+            Map<String, Integer> newCountsByTableId) {
+        List<String> unconvergedTableIdList = new ArrayList<>();
         for (Map.Entry<String, Integer> oneNewCountEntry : newCountsByTableId.entrySet()) {
             String tableId = oneNewCountEntry.getKey();
             int newCount = oneNewCountEntry.getValue();
 
             // If the old table didn't exist before (eg, was newly created), the default value is 0 rows.
-            assertTrue(newCount > oldCountsByTableId.getOrDefault(tableId, 0));
+            if (newCount <= oldCountsByTableId.getOrDefault(tableId, 0)) {
+                unconvergedTableIdList.add(tableId);
+            }
         }
+        return unconvergedTableIdList;
     }
 
-    private static Map<String, Integer> countRowsForTables(LocalDate createdDate)
-            throws Exception {
+    // Package-scoped, with the table and query engine passed in, so the benchmarks module can run it against the local
+    // backends.
+    static Map<String, Integer> countRowsForTables(Table fitBitTables, SynapseQueryEngine queryEngine,
+            LocalDate createdDate) throws Exception {
         // Query dynamo for all FitBit tables in this app.
-        Iterable<Item> tableItemIter = ddbFitBitTables.query("studyId", IntegTestUtils.TEST_APP_ID);
+        Iterable<Item> tableItemIter = fitBitTables.query("studyId", IntegTestUtils.TEST_APP_ID);
         List<String> tableIdList = new ArrayList<>();
         for (Item oneTableItem : tableItemIter) {
             String tableName = oneTableItem.getString("tableId");
@@ -203,45 +268,31 @@ public class WorkerTest {
             }
         }
 
-        // Kick off all table queries in parallel, to save on needless IO blocking.
-        Map<String, Future<Integer>> futuresByTableId = new HashMap<>();
+        // Kick off all table queries. The query engine bounds how many run at once and polls them all from one
+        // scheduler.
+        Map<String, CompletableFuture<Integer>> futuresByTableId = new HashMap<>();
         for (String oneTableId : tableIdList) {
-            Future<Integer> countFuture = executorService.submit(() -> countRows(oneTableId, createdDate));
-            futuresByTableId.put(oneTableId, countFuture);
+            futuresByTableId.put(oneTableId, countRows(queryEngine, oneTableId, createdDate));
         }
 
         // Wait on all futures.
         Map<String, Integer> countsByTableId = new HashMap<>();
-        for (Map.Entry<String, Future<Integer>> oneFutureEntry : futuresByTableId.entrySet()) {
+        for (Map.Entry<String, CompletableFuture<Integer>> oneFutureEntry : futuresByTableId.entrySet()) {
             String tableId = oneFutureEntry.getKey();
-            Future<Integer> countFuture = oneFutureEntry.getValue();
-            int count = countFuture.get();
+            int count = oneFutureEntry.getValue().get();
             countsByTableId.put(tableId, count);
         }
 
         return countsByTableId;
     }
 
-    private static int countRows(String tableId, LocalDate createdDate) throws Exception {
-        // Query Synapse
-        String jobIdToken = synapseClient.queryTableEntityBundleAsyncStart("select * from " + tableId +
-                        " where createdDate='" + createdDate.toString() + "'", 0L, null,
-                SynapseClient.COUNT_PARTMASK, tableId);
-
-        QueryResultBundle queryResultBundle = null;
-        for (int i = 0; i < POLL_MAX_ITERATIONS; i++) {
-            try {
-                LOG.info("Retry get synapse table query result times: " + i);
-                queryResultBundle = synapseClient.queryTableEntityBundleAsyncGet(jobIdToken, tableId);
-                break;
-            } catch (SynapseResultNotReadyException e) {
-                TimeUnit.SECONDS.sleep(POLL_INTERVAL_SECONDS);
-            }
-        }
-        assertNotNull(queryResultBundle);
-
-        // count rows
-        return queryResultBundle.getQueryCount().intValue();
+    private static CompletableFuture<Integer> countRows(SynapseQueryEngine queryEngine, String tableId,
+            LocalDate createdDate) {
+        String sql = "select * from " + tableId + " where createdDate='" + createdDate.toString() + "'";
+        return queryEngine.query(sql, tableId, SynapseClient.COUNT_PARTMASK).thenApply(queryResultBundle -> {
+            assertNotNull(queryResultBundle);
+            return queryResultBundle.getQueryCount().intValue();
+        });
     }
 
     @Test
@@ -252,22 +303,15 @@ public class WorkerTest {
         // Even though the signups report is a "daily" report, we can specify arbitrary start and end times.
         DateTime startDateTime = now.minusHours(1);
         DateTime endDateTime = now.plusHours(1);
-        String requestText = "{\n" +
-                "   \"service\":\"REPORTER\",\n" +
-                "   \"body\":{\n" +
-                "       \"scheduler\":\"reporter-test-" + integTestRunId + "\",\n" +
-                "       \"scheduleType\":\"DAILY_SIGNUPS\",\n" +
-                "       \"appWhitelist\":[\"" + IntegTestUtils.TEST_APP_ID + "\"],\n" +
-                "       \"startDateTime\":\"" + startDateTime.toString() + "\",\n" +
-                "       \"endDateTime\":\"" + endDateTime.toString() + "\"\n" +
-                "   }\n" +
-                "}";
-        ObjectNode requestNode = (ObjectNode) DefaultObjectMapper.INSTANCE.readTree(requestText);
-        sqsHelper.sendMessageAsJson(workerSqsUrl, requestNode, 0);
+        String scheduler = TestResources.uniqueName("reporter-test");
+        WorkerRequest request = WorkerRequest.reporter().withScheduler(scheduler).withScheduleType("DAILY_SIGNUPS")
+                .withAppWhitelist(IntegTestUtils.TEST_APP_ID).withStartDateTime(startDateTime)
+                .withEndDateTime(endDateTime).build();
+        WorkerTimings.RoundTrip roundTrip = WorkerTimings.sendWorkerRequest(sqsHelper, workerSqsUrl, request);
 
         // Verify. Poll report until we get the result or we hit max iterations.
         StudyReportsApi reportsApi = developer.getClient(StudyReportsApi.class);
-        String reportId = "reporter-test-" + integTestRunId + "-daily-signups-report";
+        String reportId = scheduler + "-daily-signups-report";
         LocalDate reportDate = startDateTime.toLocalDate();
         List<ReportData> reportDataList = null;
         for (int i = 0; i < POLL_MAX_ITERATIONS; i++) {
@@ -276,11 +320,15 @@ public class WorkerTest {
             reportDataList = reportsApi.getStudyReportRecords(reportId, reportDate, reportDate).execute().body()
                     .getItems();
             if (!reportDataList.isEmpty()) {
+                // The reporter doesn't write to the worker log, so the first time we see the report is the closest
+                // we get to a finish time.
+                roundTrip.markOutputObserved();
                 break;
             }
         }
         assertNotNull(reportDataList);
         assertFalse(reportDataList.isEmpty());
+        roundTrip.markVerified();
 
         // We should have at least one report with at least 1 user with no admin access.
         assertEquals(reportDataList.size(), 1);
@@ -298,25 +346,14 @@ public class WorkerTest {
     public void retentionReporter() throws Exception {
         DateTime startDateTime = now.minusHours(1);
         DateTime endDateTime = now.plusHours(1);
-        String requestText = "{\n" +
-                "   \"service\":\"REPORTER\",\n" +
-                "   \"body\":{\n" +
-                "       \"scheduler\":\"reporter-test-" + integTestRunId + "\",\n" +
-                "       \"scheduleType\":\"DAILY_RETENTION\",\n" +
-                "       \"appWhitelist\":[\"" + IntegTestUtils.TEST_APP_ID + "\"],\n" +
-                "       \"startDateTime\":\"" + startDateTime.toString() + "\",\n" +
-                "       \"endDateTime\":\"" + endDateTime.toString() + "\"\n" +
-                "   }\n" +
-                "}";
-        ObjectNode requestNode = (ObjectNode) DefaultObjectMapper.INSTANCE.readTree(requestText);
-        sqsHelper.sendMessageAsJson(workerSqsUrl, requestNode, 0);
+        WorkerRequest request = WorkerRequest.reporter().withScheduler(TestResources.uniqueName("reporter-test"))
+                .withScheduleType("DAILY_RETENTION").withAppWhitelist(IntegTestUtils.TEST_APP_ID)
+                .withStartDateTime(startDateTime).withEndDateTime(endDateTime).build();
+        WorkerTimings.RoundTrip roundTrip = WorkerTimings.sendWorkerRequest(sqsHelper, workerSqsUrl, request);
 
         // Verify. Poll report until we get the result or we hit max iterations.
         StudyReportsApi reportsApi = developer.getClient(StudyReportsApi.class);
-        // For some reason, the report is not written this way, it's written only using
-        // the suffix. This is a bug.
-        // String reportId = "reporter-test-" + integTestRunId + "-daily-retention-report";
-        String reportId = "-daily-retention-report";
+        String reportId = RETENTION_REPORT_ID;
         LocalDate reportDate = startDateTime.toLocalDate();
         List<ReportData> reportDataList = null;
         for (int i = 0; i < POLL_MAX_ITERATIONS; i++) {
@@ -325,11 +362,15 @@ public class WorkerTest {
             reportDataList = reportsApi.getStudyReportRecords(reportId, reportDate, reportDate).execute().body()
                     .getItems();
             if (!reportDataList.isEmpty()) {
+                // The reporter doesn't write to the worker log, so the first time we see the report is the closest
+                // we get to a finish time.
+                roundTrip.markOutputObserved();
                 break;
             }
         }
         assertNotNull(reportDataList);
         assertFalse(reportDataList.isEmpty());
+        roundTrip.markVerified();
 
         // We should have at least one report with at least 1 user without admin access.
         assertEquals(reportDataList.size(), 1);
@@ -0,0 +1,191 @@
+package org.sagebionetworks.bridge.exporter.integration;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.LongSummaryStatistics;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.sagebionetworks.bridge.json.DefaultObjectMapper;
+import org.sagebionetworks.bridge.sqs.SqsHelper;
+
+/**
+ * Records timings for worker round trips: when the request was sent, when the worker finished, and when the test
+ * finished verifying the result. sendWorkerRequest() returns a RoundTrip handle, and the test marks the finish and
+ * verification on that handle, so a missing or extra mark can't land on some other test's trip.
+ *
+ * Worker finish times come from WorkerLog.finishTime where the worker writes to the worker log. For workers that
+ * don't (REPORTER, WeeklyAdherenceReportWorker), the finish time is when the test first observed the worker's output,
+ * which is an upper bound. Each trip records which source its finish time came from. Note that WorkerLog finish times
+ * come from the worker's clock, so send-to-finish times include any clock skew between the worker and the machine
+ * running the tests.
+ *
+ * Calls through the DynamoDB and Synapse clients (and so every Table call) are also timed, per method, with
+ * instrument(). Timings are written as JSON at the end of the suite (see SuiteListener), so we can track worker
+ * performance over time.
+ */
+public class WorkerTimings {
+    private static final Logger LOG = LoggerFactory.getLogger(WorkerTimings.class);
+
+    public static final String REPORT_FILE = "target/worker-timings.json";
+
+    public static final String FINISH_SOURCE_WORKER_LOG = "workerLog";
+    public static final String FINISH_SOURCE_OBSERVED = "observed";
+
+    private static final Map<String, List<RoundTrip>> TRIPS_BY_SERVICE = new ConcurrentSkipListMap<>();
+    private static final Map<String, LongSummaryStatistics> CALL_STATS_BY_METHOD = new ConcurrentSkipListMap<>();
+
+    /** Sends the worker request and starts timing its round trip. */
+    public static RoundTrip sendWorkerRequest(SqsHelper sqsHelper, String workerSqsUrl, WorkerRequest request)
+            throws Exception {
+        return sendWorkerRequest(sqsHelper, workerSqsUrl, request.toJsonNode());
+    }
+
+    /** Sends the worker request and starts timing its round trip. The service is read from the request. */
+    public static RoundTrip sendWorkerRequest(SqsHelper sqsHelper, String workerSqsUrl, JsonNode requestNode)
+            throws Exception {
+        String service = requestNode.get("service").textValue();
+        RoundTrip roundTrip = new RoundTrip(service, System.currentTimeMillis());
+        sqsHelper.sendMessageAsJson(workerSqsUrl, requestNode, 0);
+        TRIPS_BY_SERVICE.computeIfAbsent(service, k -> new CopyOnWriteArrayList<>()).add(roundTrip);
+        return roundTrip;
+    }
+
+    /**
+     * Wraps a client so every call through the interface is timed, keyed by clientName and method name. The delegate
+     * still does all the work, and exceptions are passed through unchanged.
+     */
+    public static <T> T instrument(Class<T> clientInterface, T delegate, String clientName) {
+        InvocationHandler handler = (proxy, method, args) -> {
+            if (method.getDeclaringClass() == Object.class) {
+                return method.invoke(delegate, args);
+            }
+            long startNanos = System.nanoTime();
+            try {
+                return method.invoke(delegate, args);
+            } catch (InvocationTargetException ex) {
+                throw ex.getCause();
+            } finally {
+                long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+                LongSummaryStatistics stats = CALL_STATS_BY_METHOD.computeIfAbsent(clientName + '.' +
+                        method.getName(), k -> new LongSummaryStatistics());
+                synchronized (stats) {
+                    stats.accept(elapsedMillis);
+                }
+            }
+        };
+        return clientInterface.cast(Proxy.newProxyInstance(clientInterface.getClassLoader(),
+                new Class<?>[] { clientInterface }, handler));
+    }
+
+    /** Writes all timings as JSON to the given file. */
+    public static void writeReport(File reportFile) throws IOException {
+        ObjectNode reportNode = DefaultObjectMapper.INSTANCE.createObjectNode();
+        ObjectNode servicesNode = reportNode.putObject("services");
+        for (Map.Entry<String, List<RoundTrip>> oneServiceEntry : TRIPS_BY_SERVICE.entrySet()) {
+            LongSummaryStatistics sendToFinishStats = new LongSummaryStatistics();
+            LongSummaryStatistics sendToVerifiedStats = new LongSummaryStatistics();
+            ArrayNode tripsNode = DefaultObjectMapper.INSTANCE.createArrayNode();
+            for (RoundTrip oneRoundTrip : oneServiceEntry.getValue()) {
+                synchronized (oneRoundTrip) {
+                    ObjectNode tripNode = tripsNode.addObject();
+                    tripNode.put("sendMillis", oneRoundTrip.sendMillis);
+                    if (oneRoundTrip.finishMillis != null) {
+                        tripNode.put("finishMillis", oneRoundTrip.finishMillis);
+                        tripNode.put("finishSource", oneRoundTrip.finishSource);
+                        sendToFinishStats.accept(oneRoundTrip.finishMillis - oneRoundTrip.sendMillis);
+                    }
+                    if (oneRoundTrip.verifiedMillis != null) {
+                        tripNode.put("verifiedMillis", oneRoundTrip.verifiedMillis);
+                        sendToVerifiedStats.accept(oneRoundTrip.verifiedMillis - oneRoundTrip.sendMillis);
+                    }
+                }
+            }
+
+            ObjectNode serviceNode = servicesNode.putObject(oneServiceEntry.getKey());
+            serviceNode.put("count", oneServiceEntry.getValue().size());
+            serviceNode.set("sendToFinishMillis", statsToJson(sendToFinishStats));
+            serviceNode.set("sendToVerifiedMillis", statsToJson(sendToVerifiedStats));
+            serviceNode.set("trips", tripsNode);
+        }
+
+        ObjectNode callsNode = reportNode.putObject("clientCalls");
+        for (Map.Entry<String, LongSummaryStatistics> oneMethodEntry : CALL_STATS_BY_METHOD.entrySet()) {
+            LongSummaryStatistics stats = oneMethodEntry.getValue();
+            synchronized (stats) {
+                callsNode.set(oneMethodEntry.getKey(), statsToJson(stats));
+            }
+        }
+
+        //noinspection ResultOfMethodCallIgnored
+        reportFile.getAbsoluteFile().getParentFile().mkdirs();
+        DefaultObjectMapper.INSTANCE.writerWithDefaultPrettyPrinter().writeValue(reportFile, reportNode);
+        LOG.info("Wrote worker timings for " + TRIPS_BY_SERVICE.size() + " services and " +
+                CALL_STATS_BY_METHOD.size() + " client methods to " + reportFile);
+    }
+
+    private static ObjectNode statsToJson(LongSummaryStatistics stats) {
+        ObjectNode statsNode = DefaultObjectMapper.INSTANCE.createObjectNode();
+        statsNode.put("count", stats.getCount());
+        if (stats.getCount() > 0) {
+            statsNode.put("min", stats.getMin());
+            statsNode.put("mean", stats.getAverage());
+            statsNode.put("max", stats.getMax());
+        }
+        return statsNode;
+    }
+
+    /** Timings for one worker round trip. Each value can only be set once. Setting it again logs a warning. */
+    public static class RoundTrip {
+        private final String service;
+        private final long sendMillis;
+        private Long finishMillis;
+        private String finishSource;
+        private Long verifiedMillis;
+
+        private RoundTrip(String service, long sendMillis) {
+            this.service = service;
+            this.sendMillis = sendMillis;
+        }
+
+        /** Records the worker's finish time, from WorkerLog.finishTime. */
+        public synchronized void markWorkerFinished(long finishTimeMillis) {
+            setFinish(finishTimeMillis, FINISH_SOURCE_WORKER_LOG);
+        }
+
+        /** For workers that don't write to the worker log. Records now as the time we first saw the output. */
+        public synchronized void markOutputObserved() {
+            setFinish(System.currentTimeMillis(), FINISH_SOURCE_OBSERVED);
+        }
+
+        /** Records now as the time the test finished verifying the worker's output. */
+        public synchronized void markVerified() {
+            if (verifiedMillis != null) {
+                LOG.warn(service + " round trip sent at " + sendMillis + " was already verified");
+                return;
+            }
+            verifiedMillis = System.currentTimeMillis();
+        }
+
+        private void setFinish(long finishMillis, String finishSource) {
+            if (this.finishMillis != null) {
+                LOG.warn(service + " round trip sent at " + sendMillis + " already has a finish time");
+                return;
+            }
+            this.finishMillis = finishMillis;
+            this.finishSource = finishSource;
+        }
+    }
+}